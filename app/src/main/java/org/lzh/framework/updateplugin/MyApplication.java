@@ -23,7 +23,8 @@ public class MyApplication extends Application {
                 // 必填：数据更新接口,url与checkEntity两种方式任选一种填写
                 .url("https://raw.githubusercontent.com/yjfnypeu/UpdatePlugin/master/update.json")
 //                .checkEntity(new CheckEntity().setMethod(HttpMethod.GET).setUrl("http://www.baidu.com"))
-                // 必填：用于从数据更新接口获取的数据response中。解析出Update实例。以便框架内部处理
+                // 选填：用于从数据更新接口获取的数据response中。解析出Update实例。以便框架内部处理
+                // 未配置时使用DefaultUpdateParser，按update.json中的默认数据格式进行流式解析
                 .jsonParser(new UpdateParser() {
                     @Override
                     public Update parse(String response) throws Exception{
@@ -47,7 +48,7 @@ public class MyApplication extends Application {
                         return update;
                     }
                 })
-                // TODO: 2016/5/11 除了以上两个参数为必填。以下的参数均为非必填项。
+                // TODO: 2016/5/11 除了数据更新接口为必填。以下的参数均为非必填项。
                 // 检查更新接口是否有新版本更新的回调。
 //                .checkCB(callback)
                 // apk下载的回调
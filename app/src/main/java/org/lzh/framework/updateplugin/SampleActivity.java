@@ -17,6 +17,7 @@ import org.lzh.framework.updateplugin.update.OkhttpDownloadWorker;
 import org.lzh.framework.updateplugin.widget.CheckedView;
 import org.lzh.framework.updatepluginlib.UpdateBuilder;
 import org.lzh.framework.updatepluginlib.UpdateConfig;
+import org.lzh.framework.updatepluginlib.business.UpdateExecutor;
 import org.lzh.framework.updatepluginlib.model.Update;
 import org.lzh.framework.updatepluginlib.model.UpdateParser;
 
@@ -94,6 +95,8 @@ public class SampleActivity extends Activity {
          * {@link org.lzh.framework.updatepluginlib.UpdateConfig}
          * 类中所使用的其他模块的默认实现方式。
          * */
+        // 用户主动点击检查更新：优先于排队中的后台任务执行
+        builder.priority(UpdateExecutor.PRIORITY_USER);
         builder.check();
     }
 
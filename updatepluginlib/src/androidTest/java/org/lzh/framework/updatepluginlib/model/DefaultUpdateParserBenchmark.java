@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2017 Haoge
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lzh.framework.updatepluginlib.model;
+
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.StringReader;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * 在设备上对比{@link DefaultUpdateParser}与基于{@link JSONObject}的解析方式对同一份更新数据的解析耗时。
+ *
+ * <p>分别使用示例中的小数据(update.json)与附带大量未知字段的大数据进行测试，结果输出到logcat：
+ * <pre>
+ * ./gradlew :updatepluginlib:connectedAndroidTest
+ * adb logcat -s DefaultUpdateParserBenchmark
+ * </pre>
+ *
+ * @author haoge
+ */
+@RunWith(AndroidJUnit4.class)
+public class DefaultUpdateParserBenchmark {
+
+    private static final String TAG = "DefaultUpdateParserBenchmark";
+    private static final int WARM_UP = 200;
+    private static final int ROUNDS = 2000;
+
+    private static final String SMALL = "{\n"
+            + "  \"update_url\" : \"https://raw.githubusercontent.com/yjfnypeu/UpdatePlugin/master/update_plugin.apk\",\n"
+            + "  \"update_content\" : \"你有新的版本需要更新\",\n"
+            + "  \"update_ver_code\" : 10,\n"
+            + "  \"update_ver_name\" : \"10.00\",\n"
+            + "  \"ignore_able\" : true\n"
+            + "}";
+
+    @Test
+    public void small() throws Exception {
+        run("small", SMALL);
+    }
+
+    @Test
+    public void large() throws Exception {
+        StringBuilder json = new StringBuilder(SMALL.substring(0, SMALL.lastIndexOf('}')));
+        json.append(",\n  \"md5\" : \"d41d8cd98f00b204e9800998ecf8427e\",\n")
+                .append("  \"mirror_urls\" : [\"https://mirror1.example.com/app.apk\", \"https://mirror2.example.com/app.apk\"],\n")
+                .append("  \"changelog\" : [");
+        for (int i = 0; i < 500; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"ver\":").append(i).append(",\"notes\":\"fix bug number ").append(i).append(" in module\"}");
+        }
+        json.append("]\n}");
+        run("large", json.toString());
+    }
+
+    private void run(String name, String json) throws Exception {
+        DefaultUpdateParser parser = new DefaultUpdateParser();
+        assertSame(parseByJSONObject(json), parser.parse(new StringReader(json)));
+
+        for (int i = 0; i < WARM_UP; i++) {
+            parseByJSONObject(json);
+            parser.parse(new StringReader(json));
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            parseByJSONObject(json);
+        }
+        long jsonObject = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            parser.parse(new StringReader(json));
+        }
+        long stream = System.nanoTime() - start;
+
+        Log.i(TAG, String.format("%s(%s chars): JSONObject %.1fus/op, DefaultUpdateParser %.1fus/op",
+                name, json.length(), jsonObject / 1000.0 / ROUNDS, stream / 1000.0 / ROUNDS));
+    }
+
+    /**
+     * 与示例中的解析方式一致：先构建完整的{@link JSONObject}，再读取所需字段
+     */
+    private static Update parseByJSONObject(String json) throws Exception {
+        JSONObject object = new JSONObject(json);
+        Update update = new Update();
+        update.setUpdateUrl(object.optString("update_url"));
+        update.setVersionCode(object.optInt("update_ver_code"));
+        update.setVersionName(object.optString("update_ver_name"));
+        update.setUpdateContent(object.optString("update_content"));
+        update.setIgnore(object.optBoolean("ignore_able", false));
+        update.setForced(object.optBoolean("forced", false));
+        update.setMd5(object.optString("md5", null));
+        JSONArray mirrors = object.optJSONArray("mirror_urls");
+        if (mirrors != null) {
+            for (int i = 0; i < mirrors.length(); i++) {
+                update.addMirrorUrl(mirrors.optString(i));
+            }
+        }
+        return update;
+    }
+
+    private static void assertSame(Update expected, Update actual) {
+        assertEquals(expected.getUpdateUrl(), actual.getUpdateUrl());
+        assertEquals(expected.getVersionCode(), actual.getVersionCode());
+        assertEquals(expected.getVersionName(), actual.getVersionName());
+        assertEquals(expected.getUpdateContent(), actual.getUpdateContent());
+        assertEquals(expected.isIgnore(), actual.isIgnore());
+        assertEquals(expected.isForced(), actual.isForced());
+        assertEquals(expected.getMd5(), actual.getMd5());
+        assertEquals(expected.getMirrorUrls(), actual.getMirrorUrls());
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2017 Haoge
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lzh.framework.updatepluginlib;
+
+import org.lzh.framework.updatepluginlib.business.BatchCheckWorker;
+import org.lzh.framework.updatepluginlib.business.DefaultUpdateWorker;
+import org.lzh.framework.updatepluginlib.business.UpdateExecutor;
+import org.lzh.framework.updatepluginlib.business.UpdateWorker;
+import org.lzh.framework.updatepluginlib.model.BatchUpdateParser;
+import org.lzh.framework.updatepluginlib.model.CheckEntity;
+import org.lzh.framework.updatepluginlib.model.DefaultBatchUpdateParser;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 此类用于建立批量检查更新任务。适用于宿主apk与多个插件组件分别进行更新的场景：
+ * 通过一次网络请求检查所有组件，再将各组件的更新数据分别交由各自的{@link UpdateBuilder}进行后续流程。
+ *
+ * <p>请求时将在{@link #checkEntity(CheckEntity)}的参数中加入{@link #PARAM_ARTIFACTS}参数，描述当前已安装的组件及其版本号。
+ * 格式为：组件标识:版本号，多个组件间以逗号分隔。如：host:12,plugin_a:3
+ *
+ * <p>返回的数据通过{@link #batchParser(BatchUpdateParser)}拆分为各组件对应的数据后，
+ * 使用各组件{@link UpdateBuilder}中配置的解析器、检查器、更新策略及回调分别进行处理，与单独调用{@link UpdateBuilder#check()}时一致。
+ * 某个组件的数据解析失败时，仅通知该组件出错。
+ *
+ * <p>未在此设置的配置项，将使用{@link UpdateConfig}中的配置。
+ *
+ * @author haoge
+ */
+public class BatchUpdateBuilder {
+
+    /**
+     * 用于描述已安装组件的请求参数名
+     */
+    public static final String PARAM_ARTIFACTS = "artifacts";
+
+    private CheckEntity entity;
+    private UpdateWorker checkWorker;
+    private BatchUpdateParser batchParser;
+    private BatchCheckWorker batchWorker;
+    private int priority;
+    private final Map<String, UpdateBuilder> builders = new LinkedHashMap<>();
+    private final Map<String, Integer> versionCodes = new LinkedHashMap<>();
+    private UpdateConfig config;
+
+    private BatchUpdateBuilder(UpdateConfig config) {
+        this.config = config;
+    }
+
+    /**
+     * 使用默认全局配置进行批量更新任务创建
+     * @return Builder
+     */
+    public static BatchUpdateBuilder create() {
+        return create(UpdateConfig.getConfig());
+    }
+
+    /**
+     * 指定该批量更新任务所使用的更新配置
+     * @param config 指定使用的更新配置
+     * @return Builder
+     */
+    public static BatchUpdateBuilder create(UpdateConfig config) {
+        return new BatchUpdateBuilder(config);
+    }
+
+    public BatchUpdateBuilder url(String url) {
+        this.entity = new CheckEntity().setUrl(url);
+        return this;
+    }
+
+    public BatchUpdateBuilder checkEntity(CheckEntity entity) {
+        this.entity = entity;
+        return this;
+    }
+
+    /**
+     * 配置批量检查所使用的网络任务。网络任务需支持同步请求({@link UpdateWorker#check(CheckEntity)})。默认使用{@link DefaultUpdateWorker}
+     *
+     * <p>请勿与其他{@link UpdateBuilder}共用同一网络任务实例
+     *
+     * @param checkWorker 网络任务
+     * @return Builder
+     */
+    public BatchUpdateBuilder checkWorker(UpdateWorker checkWorker) {
+        this.checkWorker = checkWorker;
+        return this;
+    }
+
+    public BatchUpdateBuilder batchParser(BatchUpdateParser batchParser) {
+        this.batchParser = batchParser;
+        return this;
+    }
+
+    /**
+     * 设置批量检查任务的优先级。见{@link UpdateBuilder#priority(int)}
+     *
+     * @param priority 优先级。小于等于0时使用默认优先级{@link UpdateExecutor#getDefaultPriority()}
+     * @return Builder
+     */
+    public BatchUpdateBuilder priority(int priority) {
+        this.priority = priority;
+        return this;
+    }
+
+    /**
+     * 添加一个需要检查更新的组件
+     *
+     * @param artifactId 组件标识，与返回数据中的组件标识对应
+     * @param versionCode 组件当前已安装的版本号
+     * @param builder 组件的更新任务。用于解析、检查该组件的更新数据并进行后续流程，其中配置的更新api将被忽略
+     * @return Builder
+     */
+    public BatchUpdateBuilder add(String artifactId, int versionCode, UpdateBuilder builder) {
+        builders.put(artifactId, builder);
+        versionCodes.put(artifactId, versionCode);
+        return this;
+    }
+
+    /**
+     * 启动批量更新任务。可在任意线程进行启动。
+     */
+    public void check() {
+        Updater.getInstance().checkBatch(this);
+    }
+
+    public CheckEntity getCheckEntity() {
+        if (entity == null) {
+            entity = config.getCheckEntity();
+        }
+        return entity;
+    }
+
+    public UpdateWorker getCheckWorker() {
+        if (checkWorker == null) {
+            checkWorker = new DefaultUpdateWorker();
+        }
+        return checkWorker;
+    }
+
+    public BatchUpdateParser getBatchParser() {
+        if (batchParser == null) {
+            batchParser = new DefaultBatchUpdateParser();
+        }
+        return batchParser;
+    }
+
+    /**
+     * @return 已添加的组件及其更新任务，按添加顺序排列
+     */
+    public Map<String, UpdateBuilder> getBuilders() {
+        return Collections.unmodifiableMap(builders);
+    }
+
+    /**
+     * @return 已添加的组件及其已安装的版本号，按添加顺序排列
+     */
+    public Map<String, Integer> getVersionCodes() {
+        return Collections.unmodifiableMap(versionCodes);
+    }
+
+    public int getPriority() {
+        return priority > 0 ? priority : UpdateExecutor.getDefaultPriority();
+    }
+
+    public UpdateConfig getConfig() {
+        return config;
+    }
+
+    final synchronized BatchCheckWorker getBatchWorker() {
+        if (batchWorker == null) {
+            batchWorker = new BatchCheckWorker();
+        }
+        return batchWorker;
+    }
+
+    final UpdateExecutor getExecutor() {
+        return config.getExecutor();
+    }
+}
@@ -15,7 +15,10 @@
  */
 package org.lzh.framework.updatepluginlib;
 
+import org.lzh.framework.updatepluginlib.business.CheckCache;
 import org.lzh.framework.updatepluginlib.business.DownloadWorker;
+import org.lzh.framework.updatepluginlib.business.HttpTransport;
+import org.lzh.framework.updatepluginlib.business.RetryPolicy;
 import org.lzh.framework.updatepluginlib.business.UpdateExecutor;
 import org.lzh.framework.updatepluginlib.business.UpdateWorker;
 import org.lzh.framework.updatepluginlib.callback.UpdateCheckCB;
@@ -49,6 +52,9 @@ public class UpdateBuilder {
 
     private UpdateWorker checkWorker;
     private DownloadWorker downloadWorker;
+    // 通过创建器为此实例创建的网络任务。复制实例时不进行复制
+    private UpdateWorker ownCheckWorker;
+    private DownloadWorker ownDownloadWorker;
     private UpdateCheckCB checkCB;
     private UpdateDownloadCB downloadCB;
     private CheckEntity entity;
@@ -61,7 +67,19 @@ public class UpdateBuilder {
     private UpdateChecker updateChecker;
     private FileChecker fileChecker;
     private InstallStrategy installStrategy;
+    private int downloadConnections;
+    private int downloadBufferSize;
+    private Boolean nioDownload;
+    private RetryPolicy retryPolicy;
+    private long backgroundDownloadRate;
+    private CheckCache checkCache;
+    private HttpTransport httpTransport;
+    private Boolean preConnect;
+    private long prefetchSize;
+    private int priority;
     private UpdateConfig config;
+    // 最近一次发起的更新任务句柄
+    volatile UpdateTask task;
     
     private UpdateBuilder(UpdateConfig config) {
         this.config = config;
@@ -159,11 +177,108 @@ public class UpdateBuilder {
         return this;
     }
 
+    public UpdateBuilder downloadConnections(int connections) {
+        this.downloadConnections = connections;
+        return this;
+    }
+
+    public UpdateBuilder downloadBufferSize(int bufferSize) {
+        this.downloadBufferSize = bufferSize;
+        return this;
+    }
+
+    public UpdateBuilder nioDownload(boolean nioDownload) {
+        this.nioDownload = nioDownload;
+        return this;
+    }
+
+    public UpdateBuilder retryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+        return this;
+    }
+
+    public UpdateBuilder backgroundDownloadRate(long bytesPerSecond) {
+        this.backgroundDownloadRate = bytesPerSecond;
+        return this;
+    }
+
+    public UpdateBuilder checkCache(CheckCache checkCache) {
+        this.checkCache = checkCache;
+        return this;
+    }
+
+    public UpdateBuilder httpTransport(HttpTransport httpTransport) {
+        this.httpTransport = httpTransport;
+        return this;
+    }
+
+    public UpdateBuilder preConnect(boolean preConnect) {
+        this.preConnect = preConnect;
+        return this;
+    }
+
+    public UpdateBuilder prefetchSize(long bytes) {
+        this.prefetchSize = bytes;
+        return this;
+    }
+
+    /**
+     * 设置此更新任务中检查任务的优先级。此配置项仅对当前任务有效，在{@link UpdateConfig}中无对应配置。
+     * 如用户在设置页中点击检查更新时，应设置为{@link UpdateExecutor#PRIORITY_USER}
+     *
+     * <p>下载任务的优先级不受此影响：用户可见的下载为{@link UpdateExecutor#PRIORITY_USER}，后台静默下载为{@link UpdateExecutor#PRIORITY_BACKGROUND}
+     *
+     * @param priority 优先级。小于等于0时使用默认优先级{@link UpdateExecutor#getDefaultPriority()}
+     * @return Builder
+     */
+    public UpdateBuilder priority(int priority) {
+        this.priority = priority;
+        return this;
+    }
+
     /**
      * 启动更新任务。可在任意线程进行启动。
+     *
+     * @return 更新任务句柄。可用于取消此次检查及其后续的下载
+     */
+    public UpdateTask check() {
+        return Updater.getInstance().checkUpdate(this);
+    }
+
+    /**
+     * 以此实例当前的配置创建一个新的更新任务实例。之后对两者的修改互不影响。
+     *
+     * <p>通过{@link #checkWorker(UpdateWorker)}等方式配置的共享网络任务将被沿用，通过创建器创建的网络任务不会被复制，新实例将创建各自的任务
+     *
+     * @return 新的更新任务实例
      */
-    public void check() {
-        Updater.getInstance().checkUpdate(this);
+    public synchronized UpdateBuilder copy() {
+        UpdateBuilder copy = new UpdateBuilder(config);
+        copy.checkWorker = checkWorker;
+        copy.downloadWorker = downloadWorker;
+        copy.checkCB = checkCB;
+        copy.downloadCB = downloadCB;
+        copy.entity = entity;
+        copy.strategy = strategy;
+        copy.updateDialogCreator = updateDialogCreator;
+        copy.installDialogCreator = installDialogCreator;
+        copy.downloadDialogCreator = downloadDialogCreator;
+        copy.jsonParser = jsonParser;
+        copy.fileCreator = fileCreator;
+        copy.updateChecker = updateChecker;
+        copy.fileChecker = fileChecker;
+        copy.installStrategy = installStrategy;
+        copy.downloadConnections = downloadConnections;
+        copy.downloadBufferSize = downloadBufferSize;
+        copy.nioDownload = nioDownload;
+        copy.retryPolicy = retryPolicy;
+        copy.backgroundDownloadRate = backgroundDownloadRate;
+        copy.checkCache = checkCache;
+        copy.httpTransport = httpTransport;
+        copy.preConnect = preConnect;
+        copy.prefetchSize = prefetchSize;
+        copy.priority = priority;
+        return copy;
     }
 
     public UpdateStrategy getStrategy() {
@@ -219,18 +334,36 @@ public class UpdateBuilder {
         return jsonParser;
     }
 
-    public UpdateWorker getCheckWorker() {
+    /**
+     * @return 此更新任务实例的检查网络任务。未配置共享的任务时，首次调用将通过{@link UpdateConfig#getCheckWorkerCreator()}创建
+     */
+    public synchronized UpdateWorker getCheckWorker() {
         if (checkWorker == null) {
-            checkWorker = config.getCheckWorker();
+            checkWorker = config.getSharedCheckWorker();
+        }
+        if (checkWorker != null) {
+            return checkWorker;
         }
-        return checkWorker;
+        if (ownCheckWorker == null) {
+            ownCheckWorker = config.getCheckWorkerCreator().create();
+        }
+        return ownCheckWorker;
     }
 
-    public DownloadWorker getDownloadWorker() {
+    /**
+     * @return 此更新任务实例的下载网络任务。未配置共享的任务时，首次调用将通过{@link UpdateConfig#getDownloadWorkerCreator()}创建
+     */
+    public synchronized DownloadWorker getDownloadWorker() {
         if (downloadWorker == null) {
-            downloadWorker = config.getDownloadWorker();
+            downloadWorker = config.getSharedDownloadWorker();
+        }
+        if (downloadWorker != null) {
+            return downloadWorker;
+        }
+        if (ownDownloadWorker == null) {
+            ownDownloadWorker = config.getDownloadWorkerCreator().create();
         }
-        return downloadWorker;
+        return ownDownloadWorker;
     }
 
     public ApkFileCreator getFileCreator() {
@@ -261,6 +394,73 @@ public class UpdateBuilder {
         return installStrategy;
     }
 
+    public int getDownloadConnections() {
+        if (downloadConnections <= 0) {
+            downloadConnections = config.getDownloadConnections();
+        }
+        return downloadConnections;
+    }
+
+    public int getDownloadBufferSize() {
+        if (downloadBufferSize <= 0) {
+            downloadBufferSize = config.getDownloadBufferSize();
+        }
+        return downloadBufferSize;
+    }
+
+    public boolean isNioDownload() {
+        if (nioDownload == null) {
+            nioDownload = config.isNioDownload();
+        }
+        return nioDownload;
+    }
+
+    public RetryPolicy getRetryPolicy() {
+        if (retryPolicy == null) {
+            retryPolicy = config.getRetryPolicy();
+        }
+        return retryPolicy;
+    }
+
+    public long getBackgroundDownloadRate() {
+        if (backgroundDownloadRate <= 0) {
+            backgroundDownloadRate = config.getBackgroundDownloadRate();
+        }
+        return backgroundDownloadRate;
+    }
+
+    public CheckCache getCheckCache() {
+        if (checkCache == null) {
+            checkCache = config.getCheckCache();
+        }
+        return checkCache;
+    }
+
+    public boolean isPreConnect() {
+        if (preConnect == null) {
+            preConnect = config.isPreConnect();
+        }
+        return preConnect;
+    }
+
+    public long getPrefetchSize() {
+        if (prefetchSize <= 0) {
+            prefetchSize = config.getPrefetchSize();
+        }
+        return prefetchSize;
+    }
+
+    public int getPriority() {
+        return priority > 0 ? priority : UpdateExecutor.getDefaultPriority();
+    }
+
+    public HttpTransport getHttpTransport() {
+        if (httpTransport == null) {
+            httpTransport = config.getHttpTransport();
+        }
+        return httpTransport;
+    }
+
     final UpdateExecutor getExecutor() {
         return config.getExecutor();
     }
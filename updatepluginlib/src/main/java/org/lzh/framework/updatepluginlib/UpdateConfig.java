@@ -17,11 +17,15 @@ package org.lzh.framework.updatepluginlib;
 
 import android.text.TextUtils;
 
+import org.lzh.framework.updatepluginlib.business.CheckCache;
 import org.lzh.framework.updatepluginlib.business.DefaultDownloadWorker;
 import org.lzh.framework.updatepluginlib.business.DefaultUpdateWorker;
 import org.lzh.framework.updatepluginlib.business.DownloadWorker;
+import org.lzh.framework.updatepluginlib.business.HttpTransport;
+import org.lzh.framework.updatepluginlib.business.RetryPolicy;
 import org.lzh.framework.updatepluginlib.business.UpdateExecutor;
 import org.lzh.framework.updatepluginlib.business.UpdateWorker;
+import org.lzh.framework.updatepluginlib.business.WarmUpTask;
 import org.lzh.framework.updatepluginlib.callback.LogCallback;
 import org.lzh.framework.updatepluginlib.callback.UpdateCheckCB;
 import org.lzh.framework.updatepluginlib.callback.UpdateDownloadCB;
@@ -35,8 +39,10 @@ import org.lzh.framework.updatepluginlib.creator.DialogCreator;
 import org.lzh.framework.updatepluginlib.creator.DownloadCreator;
 import org.lzh.framework.updatepluginlib.creator.FileChecker;
 import org.lzh.framework.updatepluginlib.creator.InstallCreator;
+import org.lzh.framework.updatepluginlib.creator.WorkerCreator;
 import org.lzh.framework.updatepluginlib.model.CheckEntity;
 import org.lzh.framework.updatepluginlib.model.DefaultChecker;
+import org.lzh.framework.updatepluginlib.model.DefaultUpdateParser;
 import org.lzh.framework.updatepluginlib.model.UpdateChecker;
 import org.lzh.framework.updatepluginlib.model.UpdateParser;
 import org.lzh.framework.updatepluginlib.strategy.DefaultInstallStrategy;
@@ -55,6 +61,10 @@ public class UpdateConfig {
 
     private UpdateWorker checkWorker;
     private DownloadWorker downloadWorker;
+    private UpdateWorker defaultCheckWorker;
+    private DownloadWorker defaultDownloadWorker;
+    private WorkerCreator<? extends UpdateWorker> checkWorkerCreator;
+    private WorkerCreator<? extends DownloadWorker> downloadWorkerCreator;
     private UpdateCheckCB checkCB;
     private UpdateDownloadCB downloadCB;
     private CheckEntity entity;
@@ -67,8 +77,17 @@ public class UpdateConfig {
     private UpdateChecker updateChecker;
     private FileChecker fileChecker;
     private InstallStrategy installStrategy;
-
-    private UpdateExecutor executor = new UpdateExecutor();
+    private int downloadConnections = 1;
+    private int downloadBufferSize = 8 * 1024;
+    private boolean nioDownload;
+    private RetryPolicy retryPolicy;
+    private long backgroundDownloadRate;
+    private CheckCache checkCache;
+    private HttpTransport httpTransport;
+    private boolean preConnect;
+    private long prefetchSize;
+
+    private UpdateExecutor executor;
 
     private static UpdateConfig DEFAULT;
 
@@ -147,7 +166,8 @@ public class UpdateConfig {
     }
 
     /**
-     * 配置更新api的访问网络任务，默认使用{@link DefaultUpdateWorker}
+     * 配置更新api的访问网络任务。配置后所有使用此配置的更新任务实例将共享此任务，同一时间只能进行一次检查。
+     * 需要并行检查时请使用{@link #checkWorkerCreator(WorkerCreator)}
      * @param checkWorker 更新api访问网络任务。
      * @return itself
      * @see UpdateWorker
@@ -158,7 +178,8 @@ public class UpdateConfig {
     }
 
     /**
-     * 配置apk下载网络任务，默认使用{@link DefaultDownloadWorker}
+     * 配置apk下载网络任务。配置后所有使用此配置的更新任务实例将共享此任务，同一时间只能进行一个下载。
+     * 需要并行下载时请使用{@link #downloadWorkerCreator(WorkerCreator)}
      * @param downloadWorker 下载网络任务
      * @return itself
      * @see DownloadWorker
@@ -168,6 +189,30 @@ public class UpdateConfig {
         return this;
     }
 
+    /**
+     * 配置更新api访问网络任务的创建器，默认创建{@link DefaultUpdateWorker}。未通过{@link #checkWorker(UpdateWorker)}配置共享的任务时，
+     * 每个更新任务实例将通过此创建器创建各自的任务，不同实例的检查可并行执行
+     * @param creator 网络任务创建器
+     * @return itself
+     * @see WorkerCreator
+     */
+    public UpdateConfig checkWorkerCreator(WorkerCreator<? extends UpdateWorker> creator) {
+        this.checkWorkerCreator = creator;
+        return this;
+    }
+
+    /**
+     * 配置apk下载网络任务的创建器，默认创建{@link DefaultDownloadWorker}。未通过{@link #downloadWorker(DownloadWorker)}配置共享的任务时，
+     * 每个更新任务实例将通过此创建器创建各自的任务，不同实例的下载可并行执行。下载到同一文件的任务仍不会同时进行
+     * @param creator 下载网络任务创建器
+     * @return itself
+     * @see WorkerCreator
+     */
+    public UpdateConfig downloadWorkerCreator(WorkerCreator<? extends DownloadWorker> creator) {
+        this.downloadWorkerCreator = creator;
+        return this;
+    }
+
     /**
      * 配置下载回调监听。 默认使用{@link LogCallback}
      * @param downloadCB 下载回调监听
@@ -192,7 +237,7 @@ public class UpdateConfig {
     }
 
     /**
-     * 配置更新数据解析器。
+     * 配置更新数据解析器。默认参考{@link DefaultUpdateParser}
      * @param jsonParser 解析器
      * @return itself
      * @see UpdateParser
@@ -273,6 +318,129 @@ public class UpdateConfig {
         return this;
     }
 
+    /**
+     * 配置apk下载时所使用的并发连接数。默认为1，即使用单连接进行下载。
+     *
+     * <p>当此值大于1且服务器支持分段下载(响应头中含有Accept-Ranges: bytes)时，默认的{@link DefaultDownloadWorker}
+     * 将把文件切分为多个区段，使用多个连接并行下载。
+     *
+     * @param connections 并发连接数
+     * @return itself
+     * @see DefaultDownloadWorker
+     */
+    public UpdateConfig downloadConnections(int connections) {
+        this.downloadConnections = connections;
+        return this;
+    }
+
+    /**
+     * 配置apk下载时每次读写所使用的缓冲区大小。默认为8KB。
+     *
+     * <p>较大的缓冲区可以减少下载大文件时的读写次数。
+     *
+     * @param bufferSize 缓冲区大小。单位为字节
+     * @return itself
+     */
+    public UpdateConfig downloadBufferSize(int bufferSize) {
+        this.downloadBufferSize = bufferSize;
+        return this;
+    }
+
+    /**
+     * 配置默认的{@link DefaultDownloadWorker}是否使用NIO通道进行文件写入。默认为false
+     *
+     * <p>开启后。将通过{@link java.nio.channels.FileChannel}配合可复用的直接缓冲区进行写入，减少下载过程中的堆内存分配与拷贝。
+     *
+     * @param nioDownload True代表使用NIO通道进行下载写入
+     * @return itself
+     */
+    public UpdateConfig nioDownload(boolean nioDownload) {
+        this.nioDownload = nioDownload;
+        return this;
+    }
+
+    /**
+     * 配置检查更新与下载任务出错时的重试策略。默认不进行重试
+     * @param retryPolicy 重试策略。为null时不进行重试
+     * @return itself
+     * @see RetryPolicy
+     */
+    public UpdateConfig retryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+        return this;
+    }
+
+    /**
+     * 配置后台静默下载时的限制速度。
+     *
+     * <p>只有当下载为后台静默下载(更新策略{@link UpdateStrategy#isShowDownloadDialog()}为false，如wifi环境下的{@link WifiFirstStrategy})且应用处于前台时才进行限速，
+     * 以免占用应用自身所需的带宽。应用切换到后台或者用户主动点击更新时将恢复全速下载
+     *
+     * @param bytesPerSecond 限制速度，单位：字节/秒。小于等于0时代表不限速，默认不限速
+     * @return itself
+     */
+    public UpdateConfig backgroundDownloadRate(long bytesPerSecond) {
+        this.backgroundDownloadRate = bytesPerSecond;
+        return this;
+    }
+
+    /**
+     * 配置检查更新api的结果缓存。在缓存有效期内重复检查更新时将不再发起网络请求。默认不缓存
+     * @param checkCache 结果缓存
+     * @return itself
+     * @see CheckCache
+     */
+    public UpdateConfig checkCache(CheckCache checkCache) {
+        this.checkCache = checkCache;
+        return this;
+    }
+
+    /**
+     * 配置检查更新与下载任务共用的网络连接管理，包括连接、读取超时及连接池设置。默认参考{@link HttpTransport}
+     * @param httpTransport 网络连接管理
+     * @return itself
+     * @see HttpTransport
+     */
+    public UpdateConfig httpTransport(HttpTransport httpTransport) {
+        this.httpTransport = httpTransport;
+        return this;
+    }
+
+    /**
+     * 配置是否在展示更新弹窗时提前建立到apk下载地址的连接。用户确认更新后下载任务可直接复用已建立的连接
+     * @param preConnect True代表开启预连接，默认不开启
+     * @return itself
+     * @see WarmUpTask
+     */
+    public UpdateConfig preConnect(boolean preConnect) {
+        this.preConnect = preConnect;
+        return this;
+    }
+
+    /**
+     * 配置展示更新弹窗时提前下载的apk数据长度。只在非计费网络(如wifi)下生效，用户确认更新后下载任务将从已下载的位置续传
+     * @param bytes 提前下载的数据长度，单位：字节。小于等于0时代表不进行预下载，默认不进行预下载
+     * @return itself
+     * @see WarmUpTask
+     */
+    public UpdateConfig prefetchSize(long bytes) {
+        this.prefetchSize = bytes;
+        return this;
+    }
+
+    /**
+     * 配置检查更新与下载任务的调度器。可用于调整检查、下载线程池的大小及等待队列长度，默认参考{@link UpdateExecutor}
+     *
+     * <p>每个更新配置应使用各自的调度器实例
+     * @param executor 任务调度器
+     * @return itself
+     * @see UpdateExecutor
+     */
+    public UpdateConfig executor(UpdateExecutor executor) {
+        this.executor = executor;
+        return this;
+    }
+
     public UpdateStrategy getStrategy() {
         if (strategy == null) {
             strategy = new WifiFirstStrategy();
@@ -324,25 +492,81 @@ public class UpdateConfig {
 
     public UpdateParser getJsonParser() {
         if (jsonParser == null) {
-            throw new IllegalStateException("update parser is null");
+            jsonParser = new DefaultUpdateParser();
         }
         return jsonParser;
     }
 
-    public UpdateWorker getCheckWorker() {
-        if (checkWorker == null) {
-            checkWorker = new DefaultUpdateWorker();
+    /**
+     * @return 更新api访问网络任务。未配置共享的任务时，返回通过{@link #getCheckWorkerCreator()}创建的任务，不会返回null
+     * @deprecated 未配置共享的任务时，各更新任务实例将使用各自创建的任务，此处返回的任务不会被使用。
+     * 请使用{@link #getSharedCheckWorker()}或者{@link UpdateBuilder#getCheckWorker()}
+     */
+    @Deprecated
+    public synchronized UpdateWorker getCheckWorker() {
+        if (checkWorker != null) {
+            return checkWorker;
         }
-        return checkWorker;
+        if (defaultCheckWorker == null) {
+            defaultCheckWorker = getCheckWorkerCreator().create();
+        }
+        return defaultCheckWorker;
     }
 
-    public DownloadWorker getDownloadWorker() {
-        if (downloadWorker == null) {
-            downloadWorker = new DefaultDownloadWorker();
+    /**
+     * @return apk下载网络任务。未配置共享的任务时，返回通过{@link #getDownloadWorkerCreator()}创建的任务，不会返回null
+     * @deprecated 未配置共享的任务时，各更新任务实例将使用各自创建的任务，此处返回的任务不会被使用。
+     * 请使用{@link #getSharedDownloadWorker()}或者{@link UpdateBuilder#getDownloadWorker()}
+     */
+    @Deprecated
+    public synchronized DownloadWorker getDownloadWorker() {
+        if (downloadWorker != null) {
+            return downloadWorker;
+        }
+        if (defaultDownloadWorker == null) {
+            defaultDownloadWorker = getDownloadWorkerCreator().create();
         }
+        return defaultDownloadWorker;
+    }
+
+    /**
+     * @return 通过{@link #checkWorker(UpdateWorker)}配置的共享的更新api访问网络任务。未配置时返回null
+     */
+    public UpdateWorker getSharedCheckWorker() {
+        return checkWorker;
+    }
+
+    /**
+     * @return 通过{@link #downloadWorker(DownloadWorker)}配置的共享的apk下载网络任务。未配置时返回null
+     */
+    public DownloadWorker getSharedDownloadWorker() {
         return downloadWorker;
     }
 
+    public WorkerCreator<? extends UpdateWorker> getCheckWorkerCreator() {
+        if (checkWorkerCreator == null) {
+            checkWorkerCreator = new WorkerCreator<UpdateWorker>() {
+                @Override
+                public UpdateWorker create() {
+                    return new DefaultUpdateWorker();
+                }
+            };
+        }
+        return checkWorkerCreator;
+    }
+
+    public WorkerCreator<? extends DownloadWorker> getDownloadWorkerCreator() {
+        if (downloadWorkerCreator == null) {
+            downloadWorkerCreator = new WorkerCreator<DownloadWorker>() {
+                @Override
+                public DownloadWorker create() {
+                    return new DefaultDownloadWorker();
+                }
+            };
+        }
+        return downloadWorkerCreator;
+    }
+
     public ApkFileCreator getFileCreator() {
         if (fileCreator == null) {
             fileCreator = new DefaultFileCreator();
@@ -357,6 +581,48 @@ public class UpdateConfig {
         return installStrategy;
     }
 
+    public int getDownloadConnections() {
+        return Math.max(1, downloadConnections);
+    }
+
+    public int getDownloadBufferSize() {
+        return downloadBufferSize > 0 ? downloadBufferSize : 8 * 1024;
+    }
+
+    public boolean isNioDownload() {
+        return nioDownload;
+    }
+
+    /**
+     * @return 配置的重试策略。未配置时返回null，代表不进行重试
+     */
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    public long getBackgroundDownloadRate() {
+        return backgroundDownloadRate;
+    }
+
+    public CheckCache getCheckCache() {
+        return checkCache;
+    }
+
+    public boolean isPreConnect() {
+        return preConnect;
+    }
+
+    public long getPrefetchSize() {
+        return prefetchSize;
+    }
+
+    public HttpTransport getHttpTransport() {
+        if (httpTransport == null) {
+            httpTransport = new HttpTransport();
+        }
+        return httpTransport;
+    }
+
     public UpdateCheckCB getCheckCB() {
         if (checkCB == null) {
             checkCB = LogCallback.get();
@@ -371,7 +637,10 @@ public class UpdateConfig {
         return downloadCB;
     }
 
-    final UpdateExecutor getExecutor() {
+    final synchronized UpdateExecutor getExecutor() {
+        if (executor == null) {
+            executor = new UpdateExecutor();
+        }
         return executor;
     }
 }
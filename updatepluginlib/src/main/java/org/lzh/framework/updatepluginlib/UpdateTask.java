@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2017 Haoge
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lzh.framework.updatepluginlib;
+
+import org.lzh.framework.updatepluginlib.business.DownloadWorker;
+import org.lzh.framework.updatepluginlib.business.UpdateWorker;
+import org.lzh.framework.updatepluginlib.callback.UpdateCancelCB;
+import org.lzh.framework.updatepluginlib.callback.UpdateCheckCB;
+import org.lzh.framework.updatepluginlib.callback.UpdatePauseCB;
+import org.lzh.framework.updatepluginlib.model.Update;
+import org.lzh.framework.updatepluginlib.util.UpdatePreference;
+import org.lzh.framework.updatepluginlib.util.Utils;
+
+/**
+ * 更新任务的句柄。由{@link UpdateBuilder#check()}或{@link Updater#downUpdate(Update, UpdateBuilder)}返回，用于取消正在进行的更新任务。
+ *
+ * <p>通过{@link UpdateBuilder#check()}获取的句柄同时对应检查及其后续的下载流程。取消后将通过{@link UpdateCancelCB}进行通知，
+ * 正在进行的下载将立即断开连接，已下载的部分将被保留用于续传。
+ *
+ * <p>检查请求被合并到其他正在进行的相同检查中时，取消只撤回此请求的回调，被合并的检查及其他请求不受影响。
+ *
+ * <p>下载可通过{@link #pause()}暂停，{@link #resume()}恢复，暂停与恢复将通过{@link UpdatePauseCB}进行通知。暂停状态将被持久化：
+ * 进程重启后再次检查到同一更新时，后台静默下载不会自动开始，返回的句柄处于暂停状态，可直接恢复
+ *
+ * @author haoge
+ */
+public final class UpdateTask {
+
+    private final UpdateBuilder builder;
+    private volatile boolean cancelled;
+    // 因已暂停而未开始的后台下载。恢复时重新发起
+    volatile Update pausedUpdate;
+    // 检查请求被合并到的检查任务及合并的回调
+    volatile UpdateWorker attachedWorker;
+    volatile UpdateCheckCB attachedCB;
+
+    UpdateTask(UpdateBuilder builder) {
+        this.builder = builder;
+    }
+
+    /**
+     * 取消此更新任务。任务已结束或者对应的更新任务实例已发起了新的任务时无效。已暂停的下载将被直接结束
+     */
+    public void cancel() {
+        cancelled = true;
+        UpdateWorker attached = attachedWorker;
+        if (attached != null) {
+            attachedWorker = null;
+            detach(attached, attachedCB);
+            return;
+        }
+        if (builder.task != this) {
+            return;
+        }
+        Update update = pausedUpdate;
+        if (update != null) {
+            pausedUpdate = null;
+            removePausedRecord(update);
+        }
+        UpdateWorker checkWorker = builder.getCheckWorker();
+        if (checkWorker.isRunning() && checkWorker.getBuilder() == builder) {
+            checkWorker.cancel();
+        }
+        DownloadWorker downloadWorker = builder.getDownloadWorker();
+        if ((downloadWorker.isRunning() || downloadWorker.isPaused()) && downloadWorker.getUpdateBuilder() == builder) {
+            downloadWorker.cancel();
+        }
+    }
+
+    /**
+     * 暂停此任务正在进行的下载。已下载的进度将被保存
+     */
+    public void pause() {
+        if (builder.task != this) {
+            return;
+        }
+        DownloadWorker downloadWorker = builder.getDownloadWorker();
+        if (downloadWorker.isRunning() && downloadWorker.getUpdateBuilder() == builder) {
+            downloadWorker.pause();
+        }
+    }
+
+    /**
+     * 恢复此任务已暂停的下载，从暂停时的进度继续下载
+     */
+    public void resume() {
+        if (builder.task != this || cancelled) {
+            return;
+        }
+        Update update = pausedUpdate;
+        if (update != null) {
+            pausedUpdate = null;
+            removePausedRecord(update);
+            Updater.getInstance().downUpdate(update, builder, true);
+            return;
+        }
+        DownloadWorker downloadWorker = builder.getDownloadWorker();
+        if (downloadWorker.isPaused() && downloadWorker.getUpdateBuilder() == builder) {
+            downloadWorker.resume();
+        }
+    }
+
+    /**
+     * @return True代表此任务的下载已暂停
+     */
+    public boolean isPaused() {
+        if (builder.task != this) {
+            return false;
+        }
+        DownloadWorker downloadWorker = builder.getDownloadWorker();
+        return pausedUpdate != null || (downloadWorker.isPaused() && downloadWorker.getUpdateBuilder() == builder);
+    }
+
+    /**
+     * 从被合并的检查任务中撤回回调，并通知取消
+     */
+    private static void detach(UpdateWorker worker, final UpdateCheckCB checkCB) {
+        if (!worker.detach(checkCB) || !(checkCB instanceof UpdateCancelCB)) {
+            return;
+        }
+        Utils.getMainHandler().post(new Runnable() {
+            @Override
+            public void run() {
+                ((UpdateCancelCB) checkCB).onCheckCancel();
+            }
+        });
+    }
+
+    private void removePausedRecord(Update update) {
+        String path = Updater.getDownloadPath(update, builder);
+        if (path != null) {
+            UpdatePreference.removePausedDownload(path);
+        }
+    }
+
+    /**
+     * @return True代表此任务已被取消
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * @return True代表此任务的检查或下载正在进行中
+     */
+    public boolean isRunning() {
+        UpdateWorker attached = attachedWorker;
+        if (attached != null) {
+            return attached.isRunning();
+        }
+        if (builder.task != this) {
+            return false;
+        }
+        UpdateWorker checkWorker = builder.getCheckWorker();
+        DownloadWorker downloadWorker = builder.getDownloadWorker();
+        return (checkWorker.isRunning() && checkWorker.getBuilder() == builder)
+                || (downloadWorker.isRunning() && downloadWorker.getUpdateBuilder() == builder);
+    }
+}
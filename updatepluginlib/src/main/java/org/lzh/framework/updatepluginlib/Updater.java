@@ -17,21 +17,29 @@ package org.lzh.framework.updatepluginlib;
 
 import android.util.Log;
 
+import org.lzh.framework.updatepluginlib.business.BatchCheckWorker;
 import org.lzh.framework.updatepluginlib.business.DownloadWorker;
+import org.lzh.framework.updatepluginlib.business.UpdateExecutor;
 import org.lzh.framework.updatepluginlib.business.UpdateWorker;
 import org.lzh.framework.updatepluginlib.callback.DefaultCheckCB;
 import org.lzh.framework.updatepluginlib.callback.DefaultDownloadCB;
 import org.lzh.framework.updatepluginlib.creator.FileChecker;
 import org.lzh.framework.updatepluginlib.model.Update;
+import org.lzh.framework.updatepluginlib.strategy.UpdateStrategy;
+import org.lzh.framework.updatepluginlib.util.UpdatePreference;
 
 import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * 此类用于调起更新流程中的两处网络任务进行执行。
  *
- * <p>1. 检查更新api网络任务:{@link #checkUpdate(UpdateBuilder)}
+ * <p>1. 检查更新api网络任务:{@link #checkUpdate(UpdateBuilder)}。相同api的并发检查将被合并为一次请求
  *
- * <p>2. 发起apk文件下载任务:{@link #downUpdate(Update, UpdateBuilder)}
+ * <p>2. 批量检查多个组件的更新api网络任务:{@link #checkBatch(BatchUpdateBuilder)}
+ *
+ * <p>3. 发起apk文件下载任务:{@link #downUpdate(Update, UpdateBuilder)}
  *
  * @author haoge
  */
@@ -49,22 +57,75 @@ public final class Updater {
      * 调起检查api更新任务。
      *
      * @param builder 更新任务实例
+     * @return 更新任务句柄。可用于取消此次检查及其后续的下载
      */
-    public void checkUpdate(UpdateBuilder builder) {
+    public UpdateTask checkUpdate(UpdateBuilder builder) {
+        UpdateTask task = new UpdateTask(builder);
+        builder.task = task;
+
         // 定义一个默认的检查更新回调监听。用于接收api检查更新任务所发出的通知。并链接后续流程。
         DefaultCheckCB checkCB = new DefaultCheckCB();
         checkCB.setBuilder(builder);
         checkCB.onCheckStart();
 
+        UpdateExecutor executor = builder.getExecutor();
+        UpdateWorker attached = executor.attach(builder.getCheckEntity(), builder.getCheckCB());
+        if (attached != null) {
+            // 相同的检查请求正在进行：合并到当前任务中，共享其检查结果
+            task.attachedWorker = attached;
+            task.attachedCB = builder.getCheckCB();
+            return task;
+        }
         UpdateWorker checkWorker = builder.getCheckWorker();
-        if (checkWorker.isRunning()) {
+        if (!checkWorker.acquire()) {
             Log.e("Updater","Already have a update task running");
             checkCB.onCheckError(new RuntimeException("Already have a update task running"));
-            return;
+            return task;
         }
         checkWorker.setBuilder(builder);
         checkWorker.setCheckCB(checkCB);
-        builder.getExecutor().check(checkWorker);
+        checkWorker.setPriority(builder.getPriority());
+        executor.check(checkWorker);
+        return task;
+    }
+
+    /**
+     * 调起批量检查更新任务。通过一次网络请求检查所有组件，各组件的检查结果分别通知到各自的检查回调
+     *
+     * @param builder 批量更新任务实例
+     */
+    public void checkBatch(BatchUpdateBuilder builder) {
+        Map<String, DefaultCheckCB> checkCBs = new HashMap<>();
+        for (Map.Entry<String, UpdateBuilder> entry : builder.getBuilders().entrySet()) {
+            DefaultCheckCB checkCB = new DefaultCheckCB();
+            checkCB.setBuilder(entry.getValue());
+            checkCB.onCheckStart();
+            checkCBs.put(entry.getKey(), checkCB);
+        }
+
+        BatchCheckWorker batchWorker = builder.getBatchWorker();
+        if (!batchWorker.acquire()) {
+            Log.e("Updater","Already have a batch update task running");
+            for (DefaultCheckCB checkCB : checkCBs.values()) {
+                checkCB.onCheckError(new RuntimeException("Already have a batch update task running"));
+            }
+            return;
+        }
+        batchWorker.setBuilder(builder);
+        batchWorker.setCheckCBs(checkCBs);
+        batchWorker.setPriority(builder.getPriority());
+        builder.getExecutor().check(batchWorker);
+    }
+
+    /**
+     * 调起apk文件下载任务。当更新策略不展示下载进度通知时({@link UpdateStrategy#isShowDownloadDialog()})，视为后台静默下载。
+     *
+     * @param update 更新api实体类。不能为null
+     * @param builder 更新任务实例
+     * @return 更新任务句柄。可用于取消此次下载
+     */
+    public UpdateTask downUpdate(Update update,UpdateBuilder builder) {
+        return downUpdate(update, builder, !builder.getStrategy().isShowDownloadDialog());
     }
 
     /**
@@ -72,8 +133,16 @@ public final class Updater {
      *
      * @param update 更新api实体类。不能为null
      * @param builder 更新任务实例
+     * @param background 是否为后台静默下载。用户主动触发的下载应传入false，此时将全速下载
+     * @return 更新任务句柄。可用于取消此次下载。由{@link UpdateBuilder#check()}发起的下载沿用检查时返回的句柄
      */
-    public void downUpdate(Update update,UpdateBuilder builder) {
+    public UpdateTask downUpdate(Update update,UpdateBuilder builder,boolean background) {
+        UpdateTask task = builder.task;
+        if (task == null || task.isCancelled()) {
+            task = new UpdateTask(builder);
+            builder.task = task;
+        }
+
         // 定义一个默认的下载状态回调监听。用于接收文件下载任务所发出的通知。并链接下载后续流程
         DefaultDownloadCB downloadCB = new DefaultDownloadCB();
         downloadCB.setBuilder(builder);
@@ -81,16 +150,56 @@ public final class Updater {
 
         DownloadWorker downloadWorker = builder.getDownloadWorker();
         if (downloadWorker.isRunning()) {
-            Log.e("Updater","Already have a download task running");
-            downloadCB.onDownloadError(new RuntimeException("Already have a download task running"));
-            return;
+            rejectDownload(downloadWorker, downloadCB, background);
+            return task;
+        }
+
+        String path = getDownloadPath(update, builder);
+        if (path != null && UpdatePreference.isDownloadPaused(path)) {
+            if (background) {
+                // 下载已被暂停：不自动开始，等待通过UpdateTask恢复
+                task.pausedUpdate = update;
+                downloadCB.onDownloadPause();
+                return task;
+            }
+            // 用户主动请求更新时，取消暂停状态
+            UpdatePreference.removePausedDownload(path);
         }
 
+        if (!downloadWorker.acquire()) {
+            rejectDownload(downloadWorker, downloadCB, background);
+            return task;
+        }
         downloadWorker.setUpdate(update);
         downloadWorker.setUpdateBuilder(builder);
         downloadWorker.setDownloadCB(downloadCB);
+        downloadWorker.setBackground(background);
+        downloadWorker.setPriority(background ? UpdateExecutor.PRIORITY_BACKGROUND : UpdateExecutor.PRIORITY_USER);
 
         builder.getExecutor().download(downloadWorker);
+        return task;
+    }
+
+    private void rejectDownload(DownloadWorker downloadWorker, DefaultDownloadCB downloadCB, boolean background) {
+        if (!background) {
+            // 用户主动请求更新时。正在进行的后台下载恢复全速
+            downloadWorker.setBackground(false);
+            downloadWorker.setPriority(UpdateExecutor.PRIORITY_USER);
+        }
+        Log.e("Updater","Already have a download task running");
+        downloadCB.onDownloadError(new RuntimeException("Already have a download task running"));
+    }
+
+    /**
+     * @return apk文件的下载路径。无法获取时返回null
+     */
+    static String getDownloadPath(Update update, UpdateBuilder builder) {
+        try {
+            File file = builder.getFileCreator().create(update);
+            return file == null ? null : file.getAbsolutePath();
+        } catch (Throwable t) {
+            return null;
+        }
     }
 
 }
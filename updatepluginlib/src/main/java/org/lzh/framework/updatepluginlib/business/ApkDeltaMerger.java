@@ -0,0 +1,228 @@
+/*
+ * Copyright (C) 2017 Haoge
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lzh.framework.updatepluginlib.business;
+
+import org.lzh.framework.updatepluginlib.model.DeltaManifest;
+import org.lzh.framework.updatepluginlib.util.ResumableDigest;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 用于根据{@link DeltaManifest}将已安装的apk与下载的增量数据合成为新版本apk。
+ *
+ * <p>合成时通过已安装apk的中央目录定位各条目压缩数据的位置，按清单顺序将复用的条目数据与增量数据依次写出。
+ * 条目数据以压缩后的原始字节进行拷贝，无需解压与重新压缩。
+ *
+ * <p>暂不支持zip64格式的apk，此时将抛出异常并由调用方降级为下载完整apk。
+ *
+ * @author haoge
+ */
+final class ApkDeltaMerger {
+
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    private static final int EOCD_SIGNATURE = 0x06054b50;
+    private static final int CEN_SIGNATURE = 0x02014b50;
+    private static final int LOC_SIGNATURE = 0x04034b50;
+    private static final int EOCD_SIZE = 22;
+    private static final int CEN_SIZE = 46;
+    private static final int LOC_SIZE = 30;
+    private static final int MAX_COMMENT_SIZE = 0xFFFF;
+
+    private ApkDeltaMerger() {}
+
+    /**
+     * 合成新文件。
+     *
+     * @param baseApk 已安装的apk文件
+     * @param payload 下载的增量数据文件
+     * @param newFile 合成输出的新文件
+     * @param manifest 增量更新清单
+     * @param digest 用于计算新文件摘要的实例，可为null
+     * @return 新文件长度
+     * @throws IOException 读写出错，或者清单与已安装的apk、增量数据不匹配
+     */
+    static long merge(File baseApk, File payload, File newFile, DeltaManifest manifest, ResumableDigest digest) throws IOException {
+        if (payload.length() != manifest.getPayloadLength()) {
+            throw new IOException("Payload length mismatch: expected " + manifest.getPayloadLength()
+                    + " but was " + payload.length());
+        }
+        RandomAccessFile base = null;
+        InputStream data = null;
+        OutputStream output = null;
+        try {
+            base = new RandomAccessFile(baseApk, "r");
+            Map<String, long[]> entries = readEntries(base);
+            data = new BufferedInputStream(new FileInputStream(payload), BUFFER_SIZE);
+            output = new BufferedOutputStream(new FileOutputStream(newFile), BUFFER_SIZE);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            long total = 0;
+            for (DeltaManifest.Part part : manifest.getParts()) {
+                if (part.getType() == DeltaManifest.Part.TYPE_ENTRY) {
+                    long[] entry = entries.get(part.getEntryName());
+                    if (entry == null) {
+                        throw new IOException("Entry not found in installed apk: " + part.getEntryName());
+                    }
+                    total += copyEntry(base, entry, output, digest, buffer);
+                } else {
+                    total += copyData(data, part.getLength(), output, digest, buffer);
+                }
+            }
+            output.flush();
+            return total;
+        } finally {
+            closeQuietly(output);
+            closeQuietly(data);
+            closeQuietly(base);
+        }
+    }
+
+    /**
+     * 读取中央目录。
+     *
+     * @return 条目名称与[本地文件头偏移, 压缩后长度]的映射
+     */
+    private static Map<String, long[]> readEntries(RandomAccessFile apk) throws IOException {
+        long length = apk.length();
+        int tailSize = (int) Math.min(length, EOCD_SIZE + MAX_COMMENT_SIZE);
+        byte[] tail = new byte[tailSize];
+        apk.seek(length - tailSize);
+        apk.readFully(tail);
+
+        int eocd = -1;
+        for (int i = tailSize - EOCD_SIZE; i >= 0; i--) {
+            if (readInt(tail, i) == EOCD_SIGNATURE
+                    && readShort(tail, i + 20) == tailSize - i - EOCD_SIZE) {
+                eocd = i;
+                break;
+            }
+        }
+        if (eocd < 0) {
+            throw new IOException("Invalid apk: end of central directory not found");
+        }
+        int count = readShort(tail, eocd + 10);
+        long cdSize = readInt(tail, eocd + 12) & 0xFFFFFFFFL;
+        long cdOffset = readInt(tail, eocd + 16) & 0xFFFFFFFFL;
+        if (count == 0xFFFF || cdSize == 0xFFFFFFFFL || cdOffset == 0xFFFFFFFFL) {
+            throw new IOException("Zip64 apk is not supported");
+        }
+        if (cdOffset + cdSize > length) {
+            throw new IOException("Invalid apk: corrupt central directory");
+        }
+
+        byte[] cd = new byte[(int) cdSize];
+        apk.seek(cdOffset);
+        apk.readFully(cd);
+        Map<String, long[]> entries = new HashMap<>(count * 4 / 3 + 1);
+        int pos = 0;
+        for (int i = 0; i < count; i++) {
+            if (pos + CEN_SIZE > cd.length || readInt(cd, pos) != CEN_SIGNATURE) {
+                throw new IOException("Invalid apk: corrupt central directory entry");
+            }
+            long compressedSize = readInt(cd, pos + 20) & 0xFFFFFFFFL;
+            int nameLength = readShort(cd, pos + 28);
+            int extraLength = readShort(cd, pos + 30);
+            int commentLength = readShort(cd, pos + 32);
+            long localOffset = readInt(cd, pos + 42) & 0xFFFFFFFFL;
+            if (pos + CEN_SIZE + nameLength > cd.length) {
+                throw new IOException("Invalid apk: corrupt central directory entry");
+            }
+            String name = new String(cd, pos + CEN_SIZE, nameLength, "UTF-8");
+            entries.put(name, new long[]{localOffset, compressedSize});
+            pos += CEN_SIZE + nameLength + extraLength + commentLength;
+        }
+        return entries;
+    }
+
+    /**
+     * 拷贝条目压缩后的原始数据。本地文件头中的扩展字段长度可能与中央目录中的不一致，需以本地文件头为准
+     */
+    private static long copyEntry(RandomAccessFile apk, long[] entry, OutputStream output,
+                                  ResumableDigest digest, byte[] buffer) throws IOException {
+        byte[] header = new byte[LOC_SIZE];
+        apk.seek(entry[0]);
+        apk.readFully(header);
+        if (readInt(header, 0) != LOC_SIGNATURE) {
+            throw new IOException("Invalid apk: corrupt local file header");
+        }
+        long dataOffset = entry[0] + LOC_SIZE + readShort(header, 26) + readShort(header, 28);
+        long remaining = entry[1];
+        if (dataOffset + remaining > apk.length()) {
+            throw new IOException("Invalid apk: truncated entry data");
+        }
+        apk.seek(dataOffset);
+        while (remaining > 0) {
+            int count = (int) Math.min(buffer.length, remaining);
+            apk.readFully(buffer, 0, count);
+            write(output, digest, buffer, count);
+            remaining -= count;
+        }
+        return entry[1];
+    }
+
+    private static long copyData(InputStream data, long length, OutputStream output,
+                                 ResumableDigest digest, byte[] buffer) throws IOException {
+        long remaining = length;
+        while (remaining > 0) {
+            int read = data.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (read == -1) {
+                throw new EOFException("Invalid payload: truncated");
+            }
+            write(output, digest, buffer, read);
+            remaining -= read;
+        }
+        return length;
+    }
+
+    private static void write(OutputStream output, ResumableDigest digest, byte[] buffer, int count) throws IOException {
+        output.write(buffer, 0, count);
+        if (digest != null) {
+            digest.update(buffer, 0, count);
+        }
+    }
+
+    private static int readShort(byte[] buffer, int offset) {
+        return (buffer[offset] & 0xFF) | (buffer[offset + 1] & 0xFF) << 8;
+    }
+
+    private static int readInt(byte[] buffer, int offset) {
+        return (buffer[offset] & 0xFF)
+                | (buffer[offset + 1] & 0xFF) << 8
+                | (buffer[offset + 2] & 0xFF) << 16
+                | (buffer[offset + 3] & 0xFF) << 24;
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null) return;
+        try {
+            closeable.close();
+        } catch (IOException ignore) {
+            // ignore
+        }
+    }
+}
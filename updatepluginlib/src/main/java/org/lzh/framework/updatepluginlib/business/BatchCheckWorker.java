@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2017 Haoge
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lzh.framework.updatepluginlib.business;
+
+import org.lzh.framework.updatepluginlib.BatchUpdateBuilder;
+import org.lzh.framework.updatepluginlib.UpdateBuilder;
+import org.lzh.framework.updatepluginlib.callback.DefaultCheckCB;
+import org.lzh.framework.updatepluginlib.model.CheckEntity;
+import org.lzh.framework.updatepluginlib.model.Update;
+import org.lzh.framework.updatepluginlib.model.UpdateParser;
+import org.lzh.framework.updatepluginlib.util.Utils;
+
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * <b>核心操作类</b>
+ *
+ * 此为批量检查更新的网络任务。通过{@link BatchUpdateBuilder#getCheckWorker()}进行一次网络请求，
+ * 将返回数据拆分后分别派发给各组件的{@link DefaultCheckCB}，以连接各组件的后续流程
+ *
+ * @author haoge
+ */
+public final class BatchCheckWorker extends UnifiedWorker implements Runnable {
+
+    private BatchUpdateBuilder builder;
+    // 各组件的检查回调，以组件标识为key
+    private Map<String, DefaultCheckCB> checkCBs;
+
+    public void setBuilder(BatchUpdateBuilder builder) {
+        this.builder = builder;
+    }
+
+    public void setCheckCBs(Map<String, DefaultCheckCB> checkCBs) {
+        this.checkCBs = checkCBs;
+    }
+
+    @Override
+    public void run() {
+        Map<String, String> responses;
+        try {
+            UpdateWorker worker = builder.getCheckWorker();
+            CheckEntity entity = builder.getCheckEntity();
+            entity.getParams().put(BatchUpdateBuilder.PARAM_ARTIFACTS, createArtifactsParam(builder.getVersionCodes()));
+            worker.setBuilder(UpdateBuilder.create(builder.getConfig()).checkEntity(entity));
+            responses = builder.getBatchParser().split(worker.check(entity));
+        } catch (Throwable t) {
+            onError(t);
+            return;
+        }
+
+        Map<String, DefaultCheckCB> callbacks = checkCBs;
+        setRunning(false);
+        for (Map.Entry<String, UpdateBuilder> entry : builder.getBuilders().entrySet()) {
+            DefaultCheckCB checkCB = callbacks.get(entry.getKey());
+            String response = responses.get(entry.getKey());
+            try {
+                if (response == null) {
+                    sendNoUpdate(checkCB);
+                } else {
+                    dispatch(entry.getValue(), response, checkCB);
+                }
+            } catch (Throwable t) {
+                sendOnErrorMsg(checkCB, t);
+            }
+        }
+    }
+
+    private void dispatch(UpdateBuilder artifact, String response, DefaultCheckCB checkCB) throws Exception {
+        UpdateParser parser = artifact.getJsonParser();
+        Update update = UpdateWorker.preHandle(parser.parse(response), artifact);
+        if (update == null) {
+            throw new IllegalArgumentException("parse response to update failed by " + parser.getClass().getCanonicalName());
+        }
+        if (artifact.getUpdateChecker().check(update)) {
+            sendHasUpdate(checkCB, update);
+        } else {
+            sendNoUpdate(checkCB);
+        }
+    }
+
+    private void onError(Throwable t) {
+        if (scheduleRetry(builder.getConfig().getRetryPolicy(), t, new Runnable() {
+            @Override
+            public void run() {
+                executor.check(BatchCheckWorker.this);
+            }
+        })) {
+            return;
+        }
+        sendOnErrorMsg(t);
+    }
+
+    @Override
+    void onRejected(RejectedExecutionException e) {
+        sendOnErrorMsg(e);
+    }
+
+    private void sendOnErrorMsg(Throwable t) {
+        Map<String, DefaultCheckCB> callbacks = checkCBs;
+        setRunning(false);
+        for (DefaultCheckCB checkCB : callbacks.values()) {
+            sendOnErrorMsg(checkCB, t);
+        }
+    }
+
+    /**
+     * 生成描述已安装组件的请求参数。格式为：组件标识:版本号，多个组件间以逗号分隔
+     */
+    static String createArtifactsParam(Map<String, Integer> versionCodes) {
+        StringBuilder param = new StringBuilder();
+        for (Map.Entry<String, Integer> entry : versionCodes.entrySet()) {
+            if (param.length() > 0) {
+                param.append(',');
+            }
+            param.append(entry.getKey()).append(':').append(entry.getValue());
+        }
+        return param.toString();
+    }
+
+    private void sendHasUpdate(final DefaultCheckCB checkCB, final Update update) {
+        Utils.getMainHandler().post(new Runnable() {
+            @Override
+            public void run() {
+                checkCB.hasUpdate(update);
+            }
+        });
+    }
+
+    private void sendNoUpdate(final DefaultCheckCB checkCB) {
+        Utils.getMainHandler().post(new Runnable() {
+            @Override
+            public void run() {
+                checkCB.noUpdate();
+            }
+        });
+    }
+
+    private void sendOnErrorMsg(final DefaultCheckCB checkCB, final Throwable t) {
+        Utils.getMainHandler().post(new Runnable() {
+            @Override
+            public void run() {
+                checkCB.onCheckError(t);
+            }
+        });
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ * Copyright (C) 2017 Haoge
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lzh.framework.updatepluginlib.business;
+
+import org.lzh.framework.updatepluginlib.util.ResumableDigest;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * 用于将差分包应用到旧版本apk上，合成新版本apk。
+ *
+ * <p>差分包格式与bsdiff 4.x一致，区别在于三个数据块使用zlib而非bzip2进行压缩：
+ * <pre>
+ *     0   8   magic "BSDIFFZ1"
+ *     8   8   控制块压缩后长度
+ *     16  8   差异块压缩后长度
+ *     24  8   新文件长度
+ *     32  ... 控制块、差异块、额外块
+ * </pre>
+ *
+ * <p>合成过程为流式处理：旧文件按需随机读取，三个数据块按顺序解压，新文件按顺序写出。内存占用与文件大小无关。
+ *
+ * @author haoge
+ */
+final class BsPatcher {
+
+    private static final byte[] MAGIC = {'B', 'S', 'D', 'I', 'F', 'F', 'Z', '1'};
+    private static final int HEADER_SIZE = 32;
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    private BsPatcher() {}
+
+    /**
+     * 合成新文件。
+     *
+     * @param oldFile 旧版本文件
+     * @param patchFile 差分包文件
+     * @param newFile 合成输出的新文件
+     * @param digest 用于计算新文件摘要的实例，可为null
+     * @return 新文件长度
+     * @throws IOException 读写出错或者差分包格式错误
+     */
+    static long patch(File oldFile, File patchFile, File newFile, ResumableDigest digest) throws IOException {
+        long ctrlLength;
+        long diffLength;
+        long newSize;
+        DataInputStream header = new DataInputStream(new FileInputStream(patchFile));
+        try {
+            byte[] bytes = new byte[HEADER_SIZE];
+            header.readFully(bytes);
+            if (!Arrays.equals(MAGIC, Arrays.copyOf(bytes, MAGIC.length))) {
+                throw new IOException("Invalid patch file: bad magic");
+            }
+            ctrlLength = readOffset(bytes, 8);
+            diffLength = readOffset(bytes, 16);
+            newSize = readOffset(bytes, 24);
+        } finally {
+            header.close();
+        }
+        // 逐项与剩余长度比较，避免两个过大的长度相加后溢出为负数而通过检查
+        long available = patchFile.length() - HEADER_SIZE;
+        if (ctrlLength < 0 || diffLength < 0 || newSize < 0
+                || ctrlLength > available || diffLength > available - ctrlLength) {
+            throw new IOException("Invalid patch file: corrupt header");
+        }
+
+        InputStream ctrl = null;
+        InputStream diff = null;
+        InputStream extra = null;
+        RandomAccessFile old = null;
+        OutputStream output = null;
+        try {
+            ctrl = openBlock(patchFile, HEADER_SIZE);
+            diff = openBlock(patchFile, HEADER_SIZE + ctrlLength);
+            extra = openBlock(patchFile, HEADER_SIZE + ctrlLength + diffLength);
+            old = new RandomAccessFile(oldFile, "r");
+            output = new BufferedOutputStream(new FileOutputStream(newFile), BUFFER_SIZE);
+            long oldSize = old.length();
+            byte[] control = new byte[24];
+            byte[] buffer = new byte[BUFFER_SIZE];
+            byte[] oldBuffer = new byte[BUFFER_SIZE];
+            long newPos = 0;
+            long oldPos = 0;
+            while (newPos < newSize) {
+                readFully(ctrl, control, 0, control.length);
+                long diffSize = readOffset(control, 0);
+                long extraSize = readOffset(control, 8);
+                long seek = readOffset(control, 16);
+                if (diffSize < 0 || extraSize < 0
+                        || diffSize > newSize - newPos || extraSize > newSize - newPos - diffSize) {
+                    throw new IOException("Invalid patch file: corrupt control block");
+                }
+
+                // 差异部分：新数据 = 差异数据 + 旧数据
+                long remaining = diffSize;
+                while (remaining > 0) {
+                    int count = (int) Math.min(buffer.length, remaining);
+                    readFully(diff, buffer, 0, count);
+                    readOld(old, oldSize, oldPos, oldBuffer, count);
+                    for (int i = 0; i < count; i++) {
+                        buffer[i] += oldBuffer[i];
+                    }
+                    write(output, digest, buffer, count);
+                    oldPos += count;
+                    remaining -= count;
+                }
+                newPos += diffSize;
+
+                // 额外部分：直接拷贝
+                remaining = extraSize;
+                while (remaining > 0) {
+                    int count = (int) Math.min(buffer.length, remaining);
+                    readFully(extra, buffer, 0, count);
+                    write(output, digest, buffer, count);
+                    remaining -= count;
+                }
+                newPos += extraSize;
+                oldPos += seek;
+            }
+            output.flush();
+            return newSize;
+        } finally {
+            closeQuietly(output);
+            closeQuietly(old);
+            closeQuietly(ctrl);
+            closeQuietly(diff);
+            closeQuietly(extra);
+        }
+    }
+
+    private static InputStream openBlock(File patchFile, long offset) throws IOException {
+        FileInputStream input = new FileInputStream(patchFile);
+        long skipped = 0;
+        while (skipped < offset) {
+            long count = input.skip(offset - skipped);
+            if (count <= 0) {
+                input.close();
+                throw new EOFException("Invalid patch file: truncated");
+            }
+            skipped += count;
+        }
+        // 传入的Inflater不会在close()时被释放，需手动调用end()释放其本地内存
+        return new InflaterInputStream(new BufferedInputStream(input, BUFFER_SIZE), new Inflater(), BUFFER_SIZE) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    inf.end();
+                }
+            }
+        };
+    }
+
+    /**
+     * 读取旧文件中[pos, pos + count)范围内的数据。超出旧文件范围的部分以0填充
+     */
+    private static void readOld(RandomAccessFile old, long oldSize, long pos, byte[] buffer, int count) throws IOException {
+        Arrays.fill(buffer, 0, count, (byte) 0);
+        long start = Math.max(pos, 0);
+        long end = Math.min(pos + count, oldSize);
+        if (start >= end) {
+            return;
+        }
+        old.seek(start);
+        old.readFully(buffer, (int) (start - pos), (int) (end - start));
+    }
+
+    private static void write(OutputStream output, ResumableDigest digest, byte[] buffer, int count) throws IOException {
+        output.write(buffer, 0, count);
+        if (digest != null) {
+            digest.update(buffer, 0, count);
+        }
+    }
+
+    private static void readFully(InputStream input, byte[] buffer, int offset, int length) throws IOException {
+        while (length > 0) {
+            int read = input.read(buffer, offset, length);
+            if (read == -1) {
+                throw new EOFException("Invalid patch file: truncated block");
+            }
+            offset += read;
+            length -= read;
+        }
+    }
+
+    /**
+     * 读取bsdiff格式的8字节整数：小端序，最高位为符号位
+     */
+    private static long readOffset(byte[] buffer, int offset) {
+        long value = buffer[offset + 7] & 0x7F;
+        for (int i = 6; i >= 0; i--) {
+            value = (value << 8) | (buffer[offset + i] & 0xFF);
+        }
+        return (buffer[offset + 7] & 0x80) != 0 ? -value : value;
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null) return;
+        try {
+            closeable.close();
+        } catch (IOException ignore) {
+            // ignore
+        }
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2017 Haoge
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lzh.framework.updatepluginlib.business;
+
+import android.content.Context;
+
+import org.lzh.framework.updatepluginlib.util.ActivityManager;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * 检查更新api的响应缓存。保存服务器返回的ETag、Last-Modified及响应数据，用于进行条件请求。
+ *
+ * <p>缓存文件存放于应用缓存目录下的update_check目录中，以请求地址进行区分。
+ *
+ * @author haoge
+ */
+final class CachedResponse {
+
+    private static final String DIR_NAME = "update_check";
+    private static final int MAGIC = 0x55504352;
+
+    final String url;
+    final String eTag;
+    final String lastModified;
+    final String body;
+
+    CachedResponse(String url, String eTag, String lastModified, String body) {
+        this.url = url;
+        this.eTag = eTag == null ? "" : eTag;
+        this.lastModified = lastModified == null ? "" : lastModified;
+        this.body = body;
+    }
+
+    /**
+     * 读取指定请求地址的缓存。
+     *
+     * @param url 请求地址
+     * @return 缓存数据。不存在或者读取失败时返回null
+     */
+    static CachedResponse load(String url) {
+        File file = getCacheFile(url);
+        if (file == null || !file.exists()) {
+            return null;
+        }
+        DataInputStream input = null;
+        try {
+            input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (input.readInt() != MAGIC || !url.equals(input.readUTF())) {
+                return null;
+            }
+            String eTag = input.readUTF();
+            String lastModified = input.readUTF();
+            byte[] body = new byte[input.readInt()];
+            input.readFully(body);
+            return new CachedResponse(url, eTag, lastModified, new String(body, "UTF-8"));
+        } catch (IOException e) {
+            return null;
+        } finally {
+            closeQuietly(input);
+        }
+    }
+
+    /**
+     * 删除指定请求地址的缓存
+     * @param url 请求地址
+     */
+    static void delete(String url) {
+        File file = getCacheFile(url);
+        if (file != null) {
+            file.delete();
+        }
+    }
+
+    /**
+     * 保存此缓存。保存失败时忽略，下次将重新进行完整请求
+     */
+    void save() {
+        File file = getCacheFile(url);
+        if (file == null) {
+            return;
+        }
+        file.getParentFile().mkdirs();
+        DataOutputStream output = null;
+        try {
+            byte[] bytes = body.getBytes("UTF-8");
+            output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+            output.writeInt(MAGIC);
+            output.writeUTF(url);
+            output.writeUTF(eTag);
+            output.writeUTF(lastModified);
+            output.writeInt(bytes.length);
+            output.write(bytes);
+            output.close();
+            output = null;
+        } catch (IOException e) {
+            file.delete();
+        } finally {
+            closeQuietly(output);
+        }
+    }
+
+    boolean hasValidator() {
+        return eTag.length() > 0 || lastModified.length() > 0;
+    }
+
+    private static File getCacheFile(String url) {
+        Context context = ActivityManager.get().getApplicationContext();
+        if (context == null || context.getCacheDir() == null) {
+            return null;
+        }
+        File dir = new File(context.getCacheDir(), DIR_NAME);
+        return new File(dir, Integer.toHexString(url.hashCode()));
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null) return;
+        try {
+            closeable.close();
+        } catch (IOException ignore) {
+            // ignore
+        }
+    }
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright (C) 2017 Haoge
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lzh.framework.updatepluginlib.business;
+
+import android.content.Context;
+
+import org.lzh.framework.updatepluginlib.UpdateBuilder;
+import org.lzh.framework.updatepluginlib.UpdateConfig;
+import org.lzh.framework.updatepluginlib.model.CheckEntity;
+import org.lzh.framework.updatepluginlib.util.ActivityManager;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 检查更新api的结果缓存。通过{@link UpdateConfig#checkCache(CheckCache)}或者{@link UpdateBuilder#checkCache(CheckCache)}进行配置
+ *
+ * <p>在有效期内重复检查更新时，将直接使用缓存的api返回数据，不再发起网络请求。缓存数据依旧会经过解析、版本检查及更新策略等正常流程。
+ *
+ * <p>缓存分为内存与磁盘两级：内存缓存最多保存{@link #MAX_MEMORY_ENTRIES}条，磁盘缓存存放于应用缓存目录下的update_check_cache目录中，
+ * 应用重启后依旧有效。缓存以请求方式、url地址及请求参数进行区分。
+ *
+ * @author haoge
+ */
+public class CheckCache {
+
+    public static final int MAX_MEMORY_ENTRIES = 8;
+
+    private static final String DIR_NAME = "update_check_cache";
+    private static final int MAGIC = 0x55504343;
+
+    private final long ttl;
+    private boolean diskEnabled = true;
+    private final Map<String, CacheEntry> memory = new LinkedHashMap<String, CacheEntry>(MAX_MEMORY_ENTRIES, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest) {
+            return size() > MAX_MEMORY_ENTRIES;
+        }
+    };
+
+    /**
+     * @param ttl 缓存有效期，单位毫秒
+     */
+    public CheckCache(long ttl) {
+        this.ttl = ttl;
+    }
+
+    /**
+     * 设置是否启用磁盘缓存。默认启用
+     * @param diskEnabled False代表只使用内存缓存
+     * @return itself
+     */
+    public CheckCache setDiskEnabled(boolean diskEnabled) {
+        this.diskEnabled = diskEnabled;
+        return this;
+    }
+
+    public long getTtl() {
+        return ttl;
+    }
+
+    public boolean isDiskEnabled() {
+        return diskEnabled;
+    }
+
+    /**
+     * 获取有效期内的缓存数据
+     *
+     * @param entity 更新api数据实体类
+     * @return 缓存的api返回数据。不存在或者已过期时返回null
+     */
+    public synchronized String get(CheckEntity entity) {
+        String key = createKey(entity);
+        CacheEntry entry = memory.get(key);
+        if (entry == null && diskEnabled) {
+            entry = readFromDisk(key);
+            if (entry != null) {
+                memory.put(key, entry);
+            }
+        }
+        if (entry == null || !isValid(entry)) {
+            return null;
+        }
+        return entry.response;
+    }
+
+    /**
+     * 保存api返回数据
+     *
+     * @param entity 更新api数据实体类
+     * @param response api返回数据
+     */
+    public synchronized void put(CheckEntity entity, String response) {
+        String key = createKey(entity);
+        CacheEntry entry = new CacheEntry(key, response, System.currentTimeMillis());
+        memory.put(key, entry);
+        if (diskEnabled) {
+            writeToDisk(entry);
+        }
+    }
+
+    /**
+     * 移除指定的缓存
+     * @param entity 更新api数据实体类
+     */
+    public synchronized void remove(CheckEntity entity) {
+        String key = createKey(entity);
+        memory.remove(key);
+        File file = getCacheFile(key);
+        if (file != null) {
+            file.delete();
+        }
+    }
+
+    /**
+     * 清空所有缓存。下次检查更新时将重新发起网络请求
+     */
+    public synchronized void clear() {
+        memory.clear();
+        File dir = getCacheDir();
+        File[] files = dir == null ? null : dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+    }
+
+    private boolean isValid(CacheEntry entry) {
+        long age = System.currentTimeMillis() - entry.savedAt;
+        // 系统时间被回调时视为过期
+        return age >= 0 && age < ttl;
+    }
+
+    /**
+     * 创建缓存key：请求方式 + url + 按名称排序后的请求参数
+     */
+    private static String createKey(CheckEntity entity) {
+        StringBuilder builder = new StringBuilder();
+        builder.append(entity.getMethod().toUpperCase()).append(' ').append(entity.getUrl());
+        Map<String, String> params = new TreeMap<>(entity.getParams());
+        char separator = '?';
+        for (Map.Entry<String, String> param : params.entrySet()) {
+            builder.append(separator).append(param.getKey()).append('=').append(param.getValue());
+            separator = '&';
+        }
+        return builder.toString();
+    }
+
+    private CacheEntry readFromDisk(String key) {
+        File file = getCacheFile(key);
+        if (file == null || !file.exists()) {
+            return null;
+        }
+        DataInputStream input = null;
+        try {
+            input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (input.readInt() != MAGIC || !key.equals(input.readUTF())) {
+                return null;
+            }
+            long savedAt = input.readLong();
+            byte[] response = new byte[input.readInt()];
+            input.readFully(response);
+            return new CacheEntry(key, new String(response, "UTF-8"), savedAt);
+        } catch (IOException e) {
+            return null;
+        } finally {
+            closeQuietly(input);
+        }
+    }
+
+    private void writeToDisk(CacheEntry entry) {
+        File file = getCacheFile(entry.key);
+        if (file == null) {
+            return;
+        }
+        file.getParentFile().mkdirs();
+        DataOutputStream output = null;
+        try {
+            byte[] response = entry.response.getBytes("UTF-8");
+            output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+            output.writeInt(MAGIC);
+            output.writeUTF(entry.key);
+            output.writeLong(entry.savedAt);
+            output.writeInt(response.length);
+            output.write(response);
+            output.close();
+            output = null;
+        } catch (IOException e) {
+            file.delete();
+        } finally {
+            closeQuietly(output);
+        }
+    }
+
+    private static File getCacheDir() {
+        Context context = ActivityManager.get().getApplicationContext();
+        if (context == null || context.getCacheDir() == null) {
+            return null;
+        }
+        return new File(context.getCacheDir(), DIR_NAME);
+    }
+
+    private static File getCacheFile(String key) {
+        File dir = getCacheDir();
+        return dir == null ? null : new File(dir, Integer.toHexString(key.hashCode()));
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null) return;
+        try {
+            closeable.close();
+        } catch (IOException ignore) {
+            // ignore
+        }
+    }
+
+    private static class CacheEntry {
+        final String key;
+        final String response;
+        final long savedAt;
+
+        CacheEntry(String key, String response, long savedAt) {
+            this.key = key;
+            this.response = response;
+            this.savedAt = savedAt;
+        }
+    }
+}
@@ -0,0 +1,280 @@
+/*
+ * Copyright (C) 2017 Haoge
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lzh.framework.updatepluginlib.business;
+
+import org.lzh.framework.updatepluginlib.UpdateBuilder;
+import org.lzh.framework.updatepluginlib.callback.UpdateCancelCB;
+import org.lzh.framework.updatepluginlib.callback.UpdateCheckCB;
+import org.lzh.framework.updatepluginlib.callback.UpdateTrafficCB;
+import org.lzh.framework.updatepluginlib.model.Update;
+import org.lzh.framework.updatepluginlib.util.UpdatePreference;
+import org.lzh.framework.updatepluginlib.util.Utils;
+
+import java.util.Random;
+
+/**
+ * 定时检查更新的调度器。按配置的间隔自动通过{@link UpdateBuilder#check()}进行检查：
+ *
+ * <ol>
+ *     <li>每次的实际间隔在配置间隔的基础上随机浮动jitter比例，以分散大量客户端的请求时间</li>
+ *     <li>上次检查的时间将被持久化。应用重启后调用{@link #start()}时，将根据上次检查时间继续计算，且两次检查不会少于最小间隔</li>
+ *     <li>服务器可通过响应头Retry-After({@link HttpException#getRetryAfter()})或者更新数据中的建议间隔({@link Update#getNextCheckInterval()})
+ *     推迟下次检查，此要求同样会被持久化</li>
+ * </ol>
+ *
+ * <p>调度基于主线程Handler，只在进程存活期间有效。计时使用的时钟可通过{@link #setClock(Clock)}替换，以便进行测试。
+ *
+ * <p>调度器在创建时通过{@link UpdateBuilder#copy()}复制传入实例的配置，以{@link UpdateExecutor#PRIORITY_BACKGROUND}优先级进行检查，
+ * 传入的实例不会被修改，仍可用于手动检查。之后对传入实例的修改不会影响调度器。
+ *
+ * @author haoge
+ */
+public final class CheckScheduler {
+
+    /**
+     * 调度器使用的时钟
+     */
+    public interface Clock {
+        /**
+         * @return 当前时间，单位毫秒
+         */
+        long currentTimeMillis();
+    }
+
+    private static final Clock SYSTEM_CLOCK = new Clock() {
+        @Override
+        public long currentTimeMillis() {
+            return System.currentTimeMillis();
+        }
+    };
+
+    private final UpdateBuilder builder;
+    private final Random random = new Random();
+    private final Runnable checkTask = new Runnable() {
+        @Override
+        public void run() {
+            runCheck();
+        }
+    };
+
+    private long interval = 24 * 60 * 60 * 1000;
+    private long minInterval = 60 * 60 * 1000;
+    private double jitter = 0.2;
+    private Clock clock = SYSTEM_CLOCK;
+
+    private boolean started;
+    private boolean loaded;
+    private long lastCheckTime;
+    private long notBefore;
+    private long nextCheckTime;
+
+    public CheckScheduler(UpdateBuilder builder) {
+        this.builder = builder.copy();
+        this.builder.checkCB(new ScheduledCheckCB(builder.getCheckCB()));
+        // 定时检查不应影响用户主动发起的任务
+        this.builder.priority(UpdateExecutor.PRIORITY_BACKGROUND);
+    }
+
+    /**
+     * @param interval 检查间隔，单位毫秒。默认为24小时
+     * @return itself
+     */
+    public synchronized CheckScheduler setInterval(long interval) {
+        this.interval = Math.max(0, interval);
+        return this;
+    }
+
+    /**
+     * @param minInterval 两次检查的最小间隔，单位毫秒。不受随机浮动影响，跨应用重启生效。默认为1小时
+     * @return itself
+     */
+    public synchronized CheckScheduler setMinInterval(long minInterval) {
+        this.minInterval = Math.max(0, minInterval);
+        return this;
+    }
+
+    /**
+     * @param jitter 随机浮动比例，取值范围[0, 1]。默认为0.2，即实际间隔为配置间隔的80%~120%
+     * @return itself
+     */
+    public synchronized CheckScheduler setJitter(double jitter) {
+        this.jitter = Math.min(1, Math.max(0, jitter));
+        return this;
+    }
+
+    /**
+     * @param clock 计时使用的时钟。默认为系统时钟
+     * @return itself
+     */
+    public synchronized CheckScheduler setClock(Clock clock) {
+        this.clock = clock == null ? SYSTEM_CLOCK : clock;
+        return this;
+    }
+
+    /**
+     * 启动调度。从未检查过时，首次检查将在[0, interval * jitter]内的随机时间后进行
+     */
+    public synchronized void start() {
+        if (started) return;
+        started = true;
+        if (!loaded) {
+            lastCheckTime = UpdatePreference.getLastCheckTime();
+            notBefore = UpdatePreference.getNextCheckNotBefore();
+            loaded = true;
+        }
+        schedule();
+    }
+
+    /**
+     * 停止调度。已发起的检查不受影响
+     */
+    public synchronized void stop() {
+        started = false;
+        Utils.getMainHandler().removeCallbacks(checkTask);
+    }
+
+    /**
+     * @return 下次检查的时间。未启动时返回0
+     */
+    public synchronized long getNextCheckTime() {
+        return started ? nextCheckTime : 0;
+    }
+
+    /**
+     * 计算下次检查的时间
+     */
+    synchronized long computeNextCheckTime() {
+        long now = clock.currentTimeMillis();
+        long next;
+        if (lastCheckTime <= 0 || lastCheckTime > now) {
+            // 从未检查过，或者系统时间被调整到了上次检查之前
+            next = now + (long) (interval * jitter * random.nextDouble());
+        } else {
+            double factor = 1 + jitter * (2 * random.nextDouble() - 1);
+            next = Math.max(lastCheckTime + (long) (interval * factor), lastCheckTime + minInterval);
+        }
+        return Math.max(Math.max(next, notBefore), now);
+    }
+
+    private void schedule() {
+        nextCheckTime = computeNextCheckTime();
+        long delay = nextCheckTime - clock.currentTimeMillis();
+        Utils.getMainHandler().removeCallbacks(checkTask);
+        Utils.getMainHandler().postDelayed(checkTask, Math.max(0, delay));
+    }
+
+    private void runCheck() {
+        synchronized (this) {
+            if (!started) return;
+            lastCheckTime = clock.currentTimeMillis();
+            UpdatePreference.saveLastCheckTime(lastCheckTime);
+        }
+        builder.check();
+    }
+
+    /**
+     * 检查结束时记录服务器建议的等待时长，并安排下次检查
+     *
+     * @param hint 服务器建议的等待时长，单位毫秒。小于等于0时代表无建议
+     */
+    synchronized void onChecked(long hint) {
+        notBefore = hint > 0 ? clock.currentTimeMillis() + hint : 0;
+        UpdatePreference.saveNextCheckNotBefore(notBefore);
+        if (started) {
+            schedule();
+        }
+    }
+
+    /**
+     * 用于获取检查结果的回调。所有通知均转发给原有回调，原有回调实现了{@link UpdateCancelCB}、{@link UpdateTrafficCB}时同样转发
+     */
+    private class ScheduledCheckCB implements UpdateCheckCB, UpdateCancelCB, UpdateTrafficCB {
+        private final UpdateCheckCB delegate;
+
+        ScheduledCheckCB(UpdateCheckCB delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void onCheckStart() {
+            if (delegate != null) {
+                delegate.onCheckStart();
+            }
+        }
+
+        @Override
+        public void hasUpdate(Update update) {
+            onChecked(update.getNextCheckInterval());
+            if (delegate != null) {
+                delegate.hasUpdate(update);
+            }
+        }
+
+        @Override
+        public void noUpdate() {
+            Update update = builder.getCheckWorker().lastResult;
+            onChecked(update == null ? 0 : update.getNextCheckInterval());
+            if (delegate != null) {
+                delegate.noUpdate();
+            }
+        }
+
+        @Override
+        public void onCheckError(Throwable t) {
+            onChecked(RetryPolicy.getRetryAfter(t));
+            if (delegate != null) {
+                delegate.onCheckError(t);
+            }
+        }
+
+        @Override
+        public void onUserCancel() {
+            if (delegate != null) {
+                delegate.onUserCancel();
+            }
+        }
+
+        @Override
+        public void onCheckIgnore(Update update) {
+            if (delegate != null) {
+                delegate.onCheckIgnore(update);
+            }
+        }
+
+        @Override
+        public void onCheckCancel() {
+            // 被取消的检查同样需要安排下次检查，否则定时检查将就此停止
+            onChecked(0);
+            if (delegate instanceof UpdateCancelCB) {
+                ((UpdateCancelCB) delegate).onCheckCancel();
+            }
+        }
+
+        @Override
+        public void onDownloadCancel() {
+            if (delegate instanceof UpdateCancelCB) {
+                ((UpdateCancelCB) delegate).onDownloadCancel();
+            }
+        }
+
+        @Override
+        public void onCheckTraffic(String contentEncoding, long transferredBytes, long decodedBytes) {
+            if (delegate instanceof UpdateTrafficCB) {
+                ((UpdateTrafficCB) delegate).onCheckTraffic(contentEncoding, transferredBytes, decodedBytes);
+            }
+        }
+    }
+}
@@ -16,127 +16,582 @@
 package org.lzh.framework.updatepluginlib.business;
 
 import android.text.TextUtils;
+import android.util.Log;
 
 import org.lzh.framework.updatepluginlib.UpdateBuilder;
 import org.lzh.framework.updatepluginlib.UpdateConfig;
-import org.lzh.framework.updatepluginlib.util.UpdatePreference;
+import org.lzh.framework.updatepluginlib.util.ResumableDigest;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.RandomAccessFile;
 import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * 默认的apk下载任务。若需定制，则可通过{@link UpdateBuilder#downloadWorker(DownloadWorker)}或者{@link UpdateConfig#downloadWorker(DownloadWorker)}进行定制使用
  *
- * <p>此默认下载任务。支持断点下载功能。
+ * <p>此默认下载任务。支持断点下载功能。下载进度通过{@link DownloadJournal}进行记录。
+ * 续传时通过Range与If-Range请求头在同一个请求中完成校验：服务器文件未变更时返回206，否则返回200及完整文件并从头下载。
+ *
+ * <p>当更新数据中提供了MD5或SHA-256值时，将在下载的同时计算文件摘要并保存到下载记录中，供{@link org.lzh.framework.updatepluginlib.creator.DefaultFileChecker}直接使用。
+ *
+ * <p>当更新数据中提供了镜像地址({@link org.lzh.framework.updatepluginlib.model.Update#addMirrorUrl(String)})时，
+ * 将通过{@link MirrorSelector}选择最快的镜像进行下载，并在下载出错时切换到下一个镜像继续下载。
+ * 各镜像的ETag/Last-Modified互不相同，无法相互校验，因此只有提供了摘要值时才会将不同镜像下载的内容拼接到同一文件中
+ * (从已下载的位置继续下载、各区段从不同镜像下载)，否则切换镜像后从头下载，且所有区段均从同一镜像下载。
+ *
+ * <p>后台静默下载时，支持通过{@link UpdateConfig#backgroundDownloadRate(long)}进行限速。所有连接共享同一限速。
+ *
+ * <p>当配置的并发连接数大于1({@link UpdateConfig#downloadConnections(int)})且服务器支持分段下载时，将使用多连接分段下载。
  *
  * @author haoge
  */
 public class DefaultDownloadWorker extends DownloadWorker {
-    private HttpURLConnection urlConn;
+    // 分段下载时每个区段的最小长度。文件过小时分段下载并无收益
+    private static final long MIN_SEGMENT_SIZE = 1024 * 1024;
+
+    private volatile HttpURLConnection urlConn;
+    // 正在进行的分段下载区段。用于取消时中止
+    private volatile List<Segment> segments;
+
     @Override
     protected void download(String url, File target) throws Exception{
-        URL httpUrl = new URL(url);
-        urlConn = (HttpURLConnection) httpUrl.openConnection();
-        setDefaultProperties();
-        urlConn.connect();
-
-        int responseCode = urlConn.getResponseCode();
-        if (responseCode < 200 || responseCode >= 300) {
-            urlConn.disconnect();
-            throw new HttpException(responseCode,urlConn.getResponseMessage());
-        }
-
-        long contentLength = urlConn.getContentLength();
-        if (checkIsDownAll(target,url,contentLength)) {
-            urlConn.disconnect();
-            urlConn = null;
-            // notify download completed
-            sendDownloadComplete(target);
-            return;
-        }
-        RandomAccessFile raf = supportBreakpointDownload(target, httpUrl, url);
-        if (contentLength > 0) {
-            UpdatePreference.saveDownloadTotalSize(url,contentLength);
-        }
-
-        long offset = target.exists() ? (int) target.length() : 0;
-        InputStream inputStream = urlConn.getInputStream();
-        byte[] buffer = new byte[8 * 1024];
-        int length;
-        long start = System.currentTimeMillis();
-        while ((length = inputStream.read(buffer)) != -1) {
-            raf.write(buffer, 0, length);
-            offset += length;
-            long end = System.currentTimeMillis();
-            if (end - start > 1000) {
-                sendDownloadProgress(offset,contentLength);
-                start = System.currentTimeMillis();
+        List<URL> mirrors = MirrorSelector.rank(getMirrors(url), builder.getHttpTransport());
+        DownloadJournal journal = DownloadJournal.open(target);
+        try {
+            for (int i = 0; ; i++) {
+                try {
+                    downloadFrom(mirrors, i, target, journal);
+                    break;
+                } catch (Exception e) {
+                    if (i >= mirrors.size() - 1 || isAborted()) {
+                        throw e;
+                    }
+                    Log.e("DefaultDownloadWorker", "Download from " + mirrors.get(i) + " failed, switch to next mirror", e);
+                }
             }
-            UpdatePreference.saveDownloadSize(url,offset);
+        } finally {
+            journal.close();
         }
 
-        urlConn.disconnect();
-        raf.close();
-        urlConn = null;
-
         // notify download completed
         sendDownloadComplete(target);
     }
 
-    private boolean checkIsDownAll(File target,String url,long contentLength) {
-        long lastDownSize = UpdatePreference.getLastDownloadSize(url);
-        long length = target.length();
-        long lastTotalSize = UpdatePreference.getLastDownloadTotalSize(url);
-        return lastDownSize == length
-                && lastTotalSize == lastDownSize
-                && lastDownSize != 0
-                && lastDownSize == contentLength;
+    /**
+     * 获取下载地址的所有镜像地址。只有下载完整apk时才存在镜像地址
+     */
+    private List<URL> getMirrors(String url) throws MalformedURLException {
+        List<String> urls = new ArrayList<>();
+        urls.add(url);
+        if (url.equals(update.getUpdateUrl())) {
+            for (String mirror : update.getMirrorUrls()) {
+                if (!TextUtils.isEmpty(mirror) && !urls.contains(mirror)) {
+                    urls.add(mirror);
+                }
+            }
+        }
+        List<URL> mirrors = new ArrayList<>(urls.size());
+        for (String item : urls) {
+            mirrors.add(new URL(item));
+        }
+        return mirrors;
     }
 
-    private RandomAccessFile supportBreakpointDownload(File target, URL httpUrl, String url) throws IOException {
+    /**
+     * 从指定的镜像地址进行下载。
+     *
+     * <p>当由其他镜像切换而来时，下载记录中的校验信息属于其他镜像，不可用于If-Range。
+     * 此时只有能通过摘要校验最终文件时才沿用已下载的部分，否则从头下载。
+     *
+     * @param mirrors 按速度排序后的镜像地址列表
+     * @param index 此次使用的镜像索引
+     */
+    private void downloadFrom(List<URL> mirrors, int index, File target, DownloadJournal journal) throws Exception {
+        URL httpUrl = mirrors.get(index);
+        boolean failover = index > 0;
+        HttpTransport transport = builder.getHttpTransport();
+        boolean completed = false;
+        try {
+            boolean downAll = !failover && checkIsDownAll(target, journal);
+            long offset = downAll ? 0 : getResumeOffset(target, journal, failover);
 
-        String range = urlConn.getHeaderField("Accept-Ranges");
-        if (TextUtils.isEmpty(range) || !range.startsWith("bytes")) {
-            target.delete();
-            return new RandomAccessFile(target,"rw");
+            urlConn = transport.open(httpUrl);
+            setDefaultProperties(urlConn);
+            if (downAll) {
+                // 已下载完成：通过条件请求确认服务器文件未变更
+                setConditionalProperties(urlConn, journal);
+            } else if (offset > 0) {
+                // 续传：文件未变更时服务器返回206及剩余部分，否则返回200及完整文件
+                urlConn.setRequestProperty("Range", "bytes=" + offset + "-");
+                if (!failover) {
+                    urlConn.setRequestProperty("If-Range", journal.getIfRange());
+                }
+            }
+            urlConn.connect();
+
+            int responseCode = urlConn.getResponseCode();
+            if (downAll && responseCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                // 服务器文件未变更，直接使用本地文件
+                Log.d("DefaultDownloadWorker", "Local file is up to date: " + target);
+            } else if (offset > 0 && responseCode == HttpURLConnection.HTTP_PARTIAL) {
+                checkContentRange(urlConn, journal, offset);
+                if (failover) {
+                    journal.setValidators(urlConn.getHeaderField("ETag"), urlConn.getHeaderField("Last-Modified"));
+                }
+                downloadBySingle(target, journal, offset);
+            } else if (responseCode == HttpURLConnection.HTTP_OK) {
+                long contentLength = urlConn.getContentLength();
+                String eTag = urlConn.getHeaderField("ETag");
+                String lastModified = urlConn.getHeaderField("Last-Modified");
+                boolean sameResource = failover ? canMixMirrors(target) : journal.isSameResource(eTag, lastModified);
+                int connections = getSegmentCount(journal, contentLength, sameResource);
+                if (connections > 1) {
+                    // 此连接上还有完整文件未读取，无法复用
+                    transport.disconnect(urlConn);
+                    urlConn = null;
+                    // 可通过摘要校验时各区段优先从不同的镜像下载，当前镜像排在首位。否则只使用当前镜像
+                    List<URL> segmentMirrors;
+                    if (canMixMirrors(target)) {
+                        segmentMirrors = new ArrayList<>(mirrors.subList(index, mirrors.size()));
+                        segmentMirrors.addAll(mirrors.subList(0, index));
+                    } else {
+                        segmentMirrors = Collections.singletonList(httpUrl);
+                    }
+                    downloadBySegments(segmentMirrors, target, journal, contentLength, connections,
+                            sameResource, eTag, lastModified);
+                } else {
+                    // 服务器返回了完整文件：从头开始下载
+                    journal.reset(contentLength);
+                    journal.setValidators(eTag, lastModified);
+                    downloadBySingle(target, journal, 0);
+                }
+            } else {
+                throw new HttpException(responseCode,urlConn.getResponseMessage());
+            }
+            completed = true;
+        } finally {
+            if (urlConn != null) {
+                // 正常结束时归还连接以便复用，出错时直接断开
+                if (completed) {
+                    transport.release(urlConn);
+                } else {
+                    transport.disconnect(urlConn);
+                }
+                urlConn = null;
+            }
+        }
+    }
+
+    private void downloadBySingle(File target, DownloadJournal journal, long offset) throws Exception {
+        RandomAccessFile raf = new RandomAccessFile(target, "rw");
+        try {
+            // 丢弃上次下载中超出已提交进度的部分。从头下载时即为清空文件
+            raf.setLength(offset);
+            long contentLength = journal.getTotalLength();
+            ResumableDigest digest = prepareDigest(journal, target, offset);
+            journal.setDigest(digest);
+            InputStream inputStream = urlConn.getInputStream();
+            long length = offset + StreamTransfer.transfer(inputStream, raf, offset, -1, builder.getDownloadBufferSize(),
+                    builder.isNioDownload(), digest, new ProgressListener(journal, offset, contentLength));
+            if (isAborted()) {
+                throw new CancellationException("Download task was aborted");
+            }
+            if (contentLength > 0 && length != contentLength) {
+                throw new IOException(String.format("Connection closed before all bytes received: %s/%s", length, contentLength));
+            }
+            journal.complete();
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * 创建用于边下载边计算的摘要实例。续传时优先从下载记录中恢复计算状态。
+     *
+     * @return 摘要实例。更新数据中未提供摘要值或者下载的是差分包时返回null
+     */
+    private ResumableDigest prepareDigest(DownloadJournal journal, File target, long offset) throws IOException {
+        String algorithm = ResumableDigest.getAlgorithm(update);
+        if (algorithm == null || isDeltaFile(target)) {
+            return null;
+        }
+        ResumableDigest digest = journal.restoreDigest(algorithm);
+        if (digest == null || digest.getLength() != offset) {
+            // 下载记录中无可用的计算状态时。补充计算已下载的部分
+            digest = ResumableDigest.create(algorithm);
+            if (offset > 0) {
+                digest.update(target, offset);
+            }
+        }
+        return digest;
+    }
+
+    /**
+     * 计算此次下载需要使用的区段数。返回1时代表使用单连接下载。
+     *
+     * <p>当本地存在同一文件的分段下载记录时。沿用之前的分段方式。
+     */
+    private int getSegmentCount(DownloadJournal journal, long contentLength, boolean sameResource) {
+        int connections = builder.getDownloadConnections();
+        if (connections <= 1 || contentLength < MIN_SEGMENT_SIZE * 2 || !isSupportRange(urlConn)) {
+            return 1;
+        }
+
+        if (journal.matches(contentLength)
+                && sameResource
+                && journal.getSegmentCount() > 1
+                && journal.getCommittedLength() > 0) {
+            return journal.getSegmentCount();
         }
+        return (int) Math.min(connections, contentLength / MIN_SEGMENT_SIZE);
+    }
 
-        long lastDownSize = UpdatePreference.getLastDownloadSize(url);
-        long length = target.length();
-        long lastTotalSize = UpdatePreference.getLastDownloadTotalSize(url);
-        long contentLength = Long.parseLong(urlConn.getHeaderField("Content-Length"));
-        UpdatePreference.saveDownloadTotalSize(url,contentLength);
-        if (lastTotalSize != contentLength
-                || lastDownSize != length
-                || lastDownSize > contentLength) {
+    private void downloadBySegments(List<URL> mirrors, File target, DownloadJournal journal, long contentLength, int count,
+                                    boolean sameResource, String eTag, String lastModified) throws Exception {
+        if (!journal.matches(contentLength)
+                || !sameResource
+                || journal.getSegmentCount() != count
+                || target.length() != contentLength) {
             target.delete();
-            return new RandomAccessFile(target,"rw");
+            RandomAccessFile raf = new RandomAccessFile(target, "rw");
+            raf.setLength(contentLength);
+            raf.close();
+            journal.reset(contentLength, count);
+        }
+        journal.setValidators(eTag, lastModified);
+        journal.flush();
+
+        CountDownLatch latch = new CountDownLatch(count);
+        AtomicLong downloaded = new AtomicLong(journal.getCommittedLength());
+        List<Segment> segments = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            segments.add(new Segment(this, builder.getHttpTransport(), mirrors, target, journal, i, downloaded, latch,
+                    builder.getDownloadBufferSize(), builder.isNioDownload()));
+        }
+        for (int i = 0; i < count; i++) {
+            Thread thread = new Thread(segments.get(i), "Update Segment-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+        this.segments = segments;
+
+        // 由当前线程统一汇总各区段的下载进度并进行通知
+        try {
+            while (!latch.await(1000, TimeUnit.MILLISECONDS)) {
+                Throwable error = findError(segments);
+                if (error != null) {
+                    throw toException(error);
+                }
+                sendDownloadProgress(downloaded.get(), contentLength);
+            }
+        } catch (Exception e) {
+            // 出错、被取消或暂停时中止其他区段。已下载的部分均已记录，下次继续
+            cancelSegments(segments);
+            throw e;
+        } finally {
+            this.segments = null;
+        }
+        if (isAborted()) {
+            throw new CancellationException("Download task was aborted");
+        }
+
+        Throwable error = findError(segments);
+        if (error != null) {
+            throw toException(error);
+        }
+
+        // 各区段为乱序写入。无法边下载边计算摘要。在此统一计算一次并保存
+        String algorithm = ResumableDigest.getAlgorithm(update);
+        if (algorithm != null && !isDeltaFile(target)) {
+            ResumableDigest digest = ResumableDigest.create(algorithm);
+            digest.update(target, contentLength);
+            journal.setDigest(digest);
+        }
+        journal.flush();
+    }
+
+    @Override
+    protected void onAbort() {
+        List<Segment> segments = this.segments;
+        if (segments != null) {
+            cancelSegments(segments);
+        }
+        HttpURLConnection conn = urlConn;
+        if (conn != null) {
+            // 断开连接使阻塞中的读取立即结束
+            conn.disconnect();
+        }
+    }
+
+    private Throwable findError(List<Segment> segments) {
+        for (Segment segment : segments) {
+            if (segment.error != null) {
+                return segment.error;
+            }
+        }
+        return null;
+    }
+
+    private void cancelSegments(List<Segment> segments) {
+        for (Segment segment : segments) {
+            segment.cancel();
+        }
+    }
+
+    private Exception toException(Throwable t) {
+        return t instanceof Exception ? (Exception) t : new RuntimeException(t);
+    }
+
+    /**
+     * 判断本地文件是否已下载完成。只有记录中存在校验信息时才可通过条件请求确认其有效性
+     */
+    private boolean checkIsDownAll(File target,DownloadJournal journal) {
+        return journal.isCompleted()
+                && target.length() == journal.getTotalLength()
+                && (journal.getETag() != null || journal.getLastModified() != null);
+    }
+
+    /**
+     * 判断是否可将不同镜像下载的内容拼接到同一文件中。各镜像的校验信息无法相互校验，只有能在下载完成后通过摘要校验文件时才可拼接
+     */
+    private boolean canMixMirrors(File target) {
+        return ResumableDigest.getAlgorithm(update) != null && !isDeltaFile(target);
+    }
+
+    /**
+     * 获取可进行续传的起始位置。只有单连接下载记录且存在可用于If-Range的校验信息时才可续传。
+     * 切换镜像时无需校验信息，但需可通过摘要校验最终文件
+     *
+     * @return 续传起始位置。返回0时代表需要从头下载
+     */
+    private long getResumeOffset(File target, DownloadJournal journal, boolean failover) {
+        if (journal.getSegmentCount() != 1
+                || journal.getTotalLength() <= 0
+                || (failover ? !canMixMirrors(target) : journal.getIfRange() == null)
+                || journal.isCompleted()) {
+            return 0;
         }
-        urlConn.disconnect();
-        urlConn = (HttpURLConnection) httpUrl.openConnection();
+        long committed = journal.getCommitted(0);
+        return committed <= target.length() ? committed : 0;
+    }
+
+    private static void setConditionalProperties(HttpURLConnection conn, DownloadJournal journal) {
+        if (journal.getETag() != null) {
+            conn.setRequestProperty("If-None-Match", journal.getETag());
+        }
+        if (journal.getLastModified() != null) {
+            conn.setRequestProperty("If-Modified-Since", journal.getLastModified());
+        }
+    }
+
+    /**
+     * 校验续传响应中的Content-Range与请求是否一致。不一致时清空下载记录，下次将从头下载
+     */
+    private static void checkContentRange(HttpURLConnection conn, DownloadJournal journal, long offset) throws IOException {
+        String range = conn.getHeaderField("Content-Range");
+        long[] values = parseContentRange(range);
+        if (values[0] != offset || values[1] != journal.getTotalLength()) {
+            journal.reset(-1);
+            throw new IOException("Unexpected Content-Range for resuming: " + range);
+        }
+    }
+
+    /**
+     * 解析Content-Range响应头：bytes start-end/total
+     *
+     * @return [start, total]。格式错误时均为-1
+     */
+    static long[] parseContentRange(String range) {
+        long[] values = {-1, -1};
+        if (range != null && range.startsWith("bytes ")) {
+            try {
+                int dash = range.indexOf('-');
+                int slash = range.indexOf('/');
+                values[0] = Long.parseLong(range.substring(6, dash).trim());
+                values[1] = Long.parseLong(range.substring(slash + 1).trim());
+            } catch (RuntimeException e) {
+                values[0] = values[1] = -1;
+            }
+        }
+        return values;
+    }
+
+    private static boolean isSupportRange(HttpURLConnection conn) {
+        String range = conn.getHeaderField("Accept-Ranges");
+        return !TextUtils.isEmpty(range) && range.startsWith("bytes");
+    }
+
+    private static void setDefaultProperties(HttpURLConnection conn) throws IOException {
+        conn.setRequestProperty("Content-Type","text/html; charset=UTF-8");
+        conn.setRequestMethod("GET");
+    }
 
-        urlConn.setRequestProperty("RANGE", "bytes=" + length + "-" + contentLength);
-        setDefaultProperties();
-        urlConn.connect();
+    /**
+     * 单连接下载时的写入监听。用于提交下载进度并每秒通知一次。
+     */
+    private class ProgressListener implements StreamTransfer.Listener {
+        private final DownloadJournal journal;
+        private final long contentLength;
+        private long offset;
+        private long start = System.currentTimeMillis();
 
-        int responseCode = urlConn.getResponseCode();
-        if (responseCode < 200 || responseCode >= 300) {
-            throw new HttpException(responseCode,urlConn.getResponseMessage());
+        ProgressListener(DownloadJournal journal, long offset, long contentLength) {
+            this.journal = journal;
+            this.offset = offset;
+            this.contentLength = contentLength;
         }
-        RandomAccessFile raf = new RandomAccessFile(target,"rw");
-        raf.seek(length);
 
-        return raf;
+        @Override
+        public boolean onTransferred(int length) throws IOException {
+            offset += length;
+            journal.commit(0, length);
+            throttle(length);
+            long end = System.currentTimeMillis();
+            if (end - start > 1000) {
+                sendDownloadProgress(offset,contentLength);
+                start = System.currentTimeMillis();
+            }
+            return !isAborted();
+        }
     }
 
-    private void setDefaultProperties() throws IOException {
-        urlConn.setRequestProperty("Content-Type","text/html; charset=UTF-8");
-        urlConn.setRequestMethod("GET");
-        urlConn.setConnectTimeout(10000);
+    /**
+     * 分段下载中的单个区段任务。使用独立的连接下载[start, end]范围内的数据。并写入到文件中对应的位置。
+     *
+     * <p>各区段优先从不同的镜像下载。下载出错时从已提交的位置切换到下一个镜像继续下载，直到所有镜像均失败。
+     * 只有能通过摘要校验最终文件时才会传入多个镜像，否则只传入单个镜像。
+     */
+    private static class Segment implements Runnable {
+        private final DownloadWorker worker;
+        private final HttpTransport transport;
+        private final List<URL> mirrors;
+        private final File target;
+        private final DownloadJournal journal;
+        private final int index;
+        private final long end;
+        private final AtomicLong downloaded;
+        private final CountDownLatch latch;
+        private final int bufferSize;
+        private final boolean nio;
+
+        private volatile HttpURLConnection conn;
+        private volatile boolean canceled;
+        private volatile Throwable error;
+
+        Segment(DownloadWorker worker, HttpTransport transport, List<URL> mirrors, File target, DownloadJournal journal,
+                int index, AtomicLong downloaded, CountDownLatch latch, int bufferSize, boolean nio) {
+            this.worker = worker;
+            this.transport = transport;
+            this.mirrors = mirrors;
+            this.target = target;
+            this.journal = journal;
+            this.index = index;
+            this.end = journal.getEnd(index);
+            this.downloaded = downloaded;
+            this.latch = latch;
+            this.bufferSize = bufferSize;
+            this.nio = nio;
+        }
+
+        @Override
+        public void run() {
+            try {
+                Throwable last = null;
+                for (int i = 0; i < mirrors.size() && !canceled; i++) {
+                    int mirror = (index + i) % mirrors.size();
+                    try {
+                        // 下载记录中的校验信息只属于首个镜像
+                        transfer(mirrors.get(mirror), mirror == 0 ? journal.getIfRange() : null);
+                        return;
+                    } catch (Throwable t) {
+                        last = t;
+                    }
+                }
+                if (!canceled) {
+                    error = last;
+                }
+            } finally {
+                latch.countDown();
+            }
+        }
+
+        private void transfer(URL httpUrl, String ifRange) throws IOException {
+            long start = journal.getStart(index) + journal.getCommitted(index);
+            if (start > end) {
+                // 此区段已下载完成
+                return;
+            }
+            RandomAccessFile raf = null;
+            boolean completed = false;
+            try {
+                conn = transport.open(httpUrl);
+                setDefaultProperties(conn);
+                conn.setRequestProperty("Range", "bytes=" + start + "-" + end);
+                if (ifRange != null) {
+                    // 服务器文件在分段下载期间被替换时将返回200，此时中断下载
+                    conn.setRequestProperty("If-Range", ifRange);
+                }
+                conn.connect();
+
+                int responseCode = conn.getResponseCode();
+                if (responseCode != HttpURLConnection.HTTP_PARTIAL) {
+                    throw new HttpException(responseCode, conn.getResponseMessage());
+                }
+                long[] range = parseContentRange(conn.getHeaderField("Content-Range"));
+                if (range[0] != start || range[1] != journal.getTotalLength()) {
+                    throw new IOException("Unexpected Content-Range from " + httpUrl + ": " + conn.getHeaderField("Content-Range"));
+                }
+
+                raf = new RandomAccessFile(target, "rw");
+                long remaining = end - start + 1;
+                remaining -= StreamTransfer.transfer(conn.getInputStream(), raf, start, remaining,
+                        bufferSize, nio, null, new StreamTransfer.Listener() {
+                    @Override
+                    public boolean onTransferred(int length) throws IOException {
+                        journal.commit(index, length);
+                        downloaded.addAndGet(length);
+                        worker.throttle(length);
+                        return !canceled;
+                    }
+                });
+                if (remaining > 0 && !canceled) {
+                    throw new IOException(String.format("Segment [%s-%s] closed before all bytes received", start, end));
+                }
+                completed = remaining == 0;
+            } finally {
+                closeQuietly(raf);
+                if (completed) {
+                    transport.release(conn);
+                } else {
+                    transport.disconnect(conn);
+                }
+            }
+        }
+
+        void cancel() {
+            canceled = true;
+            transport.disconnect(conn);
+        }
+
+        private static void closeQuietly(RandomAccessFile raf) {
+            if (raf == null) return;
+            try {
+                raf.close();
+            } catch (IOException ignore) {
+                // ignore
+            }
+        }
     }
 
 }
@@ -17,85 +17,268 @@ package org.lzh.framework.updatepluginlib.business;
 
 import org.lzh.framework.updatepluginlib.UpdateBuilder;
 import org.lzh.framework.updatepluginlib.UpdateConfig;
+import org.lzh.framework.updatepluginlib.callback.UpdateTrafficCB;
 import org.lzh.framework.updatepluginlib.model.CheckEntity;
 
-import java.io.BufferedReader;
+import java.io.BufferedInputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.Reader;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Locale;
 import java.util.Map;
+import java.util.TimeZone;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 /**
  * 默认提供的检查更新api网络任务：
  *
+ * <p>对于GET请求，将保存服务器返回的ETag、Last-Modified及响应数据，并在下次请求时通过If-None-Match、If-Modified-Since进行条件请求。
+ * 服务器返回304时直接使用缓存的响应数据，且当数据与上次解析的一致时无需重复解析。
+ *
+ * <p>使用{@link org.lzh.framework.updatepluginlib.model.StreamUpdateParser}时，响应流将直接交由解析器边接收边解析。
+ *
+ * <p>请求时声明支持gzip、deflate压缩，并对响应数据进行流式解压。实际传输的数据长度通过{@link UpdateTrafficCB}进行通知。
+ *
+ * <p>连接通过{@link HttpTransport}创建与归还，以便与下载任务复用同一连接池。
+ *
  * <p>若需定制。则可通过 {@link UpdateBuilder#checkWorker(UpdateWorker)}或者 {@link UpdateConfig#checkWorker(UpdateWorker)}进行定制
  *
  * @author haoge
  */
 public class DefaultUpdateWorker extends UpdateWorker {
+
+    // 显式声明支持的压缩格式。此时HttpURLConnection不再自动解压，由此处自行解压并统计实际传输的数据长度
+    private static final String ACCEPT_ENCODING = "gzip, deflate";
+
+    // 最近一次使用的响应缓存。避免每次检查都重新读取缓存文件
+    private CachedResponse lastCached;
+
     @Override
     protected String check(CheckEntity entity) throws Exception {
-        HttpURLConnection urlConn = createHttpRequest(entity);
+        Reader reader = checkStream(entity);
+        if (reader instanceof ResponseReader) {
+            return ((ResponseReader) reader).response;
+        }
+        try {
+            if (reader instanceof RecordingReader) {
+                return ((RecordingReader) reader).complete();
+            }
+            return read(reader);
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Override
+    protected Reader checkStream(CheckEntity entity) throws Exception {
+        boolean isGet = entity.getMethod().equalsIgnoreCase("GET");
+        final String url = isGet ? createGetUrl(entity) : entity.getUrl();
+        CachedResponse cached = isGet ? getCachedResponse(url) : null;
+        HttpTransport transport = getHttpTransport();
+        HttpURLConnection urlConn = isGet ? createGetRequest(transport, url, cached) : createPostRequest(transport, entity);
 
         int responseCode = urlConn.getResponseCode();
+        if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED && cached != null) {
+            transport.release(urlConn);
+            return new ResponseReader(cached.body);
+        }
         if (responseCode < 200 || responseCode >= 300) {
-            urlConn.disconnect();
-            throw new HttpException(responseCode,urlConn.getResponseMessage());
+            String message = urlConn.getResponseMessage();
+            long retryAfter = parseRetryAfter(urlConn.getHeaderField("Retry-After"));
+            transport.release(urlConn);
+            throw new HttpException(responseCode,message,retryAfter);
+        }
+        Reader reader;
+        try {
+            reader = new InputStreamReader(openBody(transport, urlConn), getCharset(urlConn));
+        } catch (IOException e) {
+            transport.disconnect(urlConn);
+            throw e;
+        }
+        if (!isGet) {
+            return reader;
         }
 
-        BufferedReader bis = new BufferedReader(new InputStreamReader(urlConn.getInputStream(), "utf-8"));
+        final String eTag = urlConn.getHeaderField("ETag");
+        final String lastModified = urlConn.getHeaderField("Last-Modified");
+        if (eTag == null && lastModified == null) {
+            // 服务器不再返回校验信息时，清除旧缓存
+            saveCachedResponse(new CachedResponse(url, null, null, ""));
+            return reader;
+        }
+        // 读取的同时记录响应数据，读取完成后进行保存
+        return new RecordingReader(reader, new RecordingReader.Listener() {
+            @Override
+            public void onRecorded(String text) {
+                saveCachedResponse(new CachedResponse(url, eTag, lastModified, text));
+            }
+        });
+    }
+
+    /**
+     * 打开响应数据流：根据Content-Encoding进行流式解压。流关闭时归还连接，并通知流量统计
+     */
+    private InputStream openBody(final HttpTransport transport, final HttpURLConnection urlConn) throws IOException {
+        String contentEncoding = urlConn.getContentEncoding();
+        final String encoding = contentEncoding == null ? null : contentEncoding.trim().toLowerCase(Locale.US);
+        final CountingInputStream transferred = new CountingInputStream(urlConn.getInputStream());
+        final CountingInputStream decoded = new CountingInputStream(decode(transferred, encoding));
+        return new FilterInputStream(decoded) {
+            private boolean closed;
+
+            @Override
+            public void close() throws IOException {
+                if (closed) return;
+                closed = true;
+                try {
+                    // 解析器可能未读取到数据末尾。丢弃剩余数据以便连接可被复用
+                    transport.release(urlConn);
+                    super.close();
+                } finally {
+                    sendCheckTraffic(isCompressed(encoding) ? encoding : null,
+                            transferred.getCount(), decoded.getCount());
+                }
+            }
+        };
+    }
 
-        StringBuilder sb = new StringBuilder();
-        String lines;
-        while ((lines = bis.readLine()) != null) {
-            sb.append(lines);
+    private boolean isCompressed(String encoding) {
+        return "gzip".equals(encoding) || "x-gzip".equals(encoding) || "deflate".equals(encoding);
+    }
+
+    private InputStream decode(InputStream input, String encoding) throws IOException {
+        if ("gzip".equals(encoding) || "x-gzip".equals(encoding)) {
+            return new GZIPInputStream(input);
+        }
+        if (!"deflate".equals(encoding)) {
+            return input;
         }
+        // deflate应为zlib格式，但部分服务器返回不带zlib头的原始deflate数据。通过头两个字节进行区分
+        BufferedInputStream buffered = new BufferedInputStream(input);
+        buffered.mark(2);
+        int cmf = buffered.read();
+        int flg = buffered.read();
+        buffered.reset();
+        boolean zlib = cmf != -1 && flg != -1 && (cmf & 0x0F) == 8 && ((cmf << 8) | flg) % 31 == 0;
+        final Inflater inflater = new Inflater(!zlib);
+        return new InflaterInputStream(buffered, inflater) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    inflater.end();
+                }
+            }
+        };
+    }
 
-        urlConn.disconnect();
+    /**
+     * 解析Retry-After响应头：秒数或者HTTP日期
+     *
+     * @return 等待时长，单位毫秒。未提供或者格式错误时返回-1
+     */
+    private long parseRetryAfter(String retryAfter) {
+        if (retryAfter == null) {
+            return -1;
+        }
+        retryAfter = retryAfter.trim();
+        try {
+            return Math.max(0, Long.parseLong(retryAfter)) * 1000;
+        } catch (NumberFormatException ignore) {
+            // HTTP日期格式
+        }
+        try {
+            SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+            format.setTimeZone(TimeZone.getTimeZone("GMT"));
+            return Math.max(0, format.parse(retryAfter).getTime() - System.currentTimeMillis());
+        } catch (ParseException e) {
+            return -1;
+        }
+    }
 
-        return sb.toString();
+    /**
+     * 从Content-Type中获取响应数据编码，默认为UTF-8
+     */
+    private String getCharset(HttpURLConnection urlConn) {
+        String contentType = urlConn.getContentType();
+        if (contentType != null) {
+            for (String param : contentType.split(";")) {
+                param = param.trim();
+                if (param.regionMatches(true, 0, "charset=", 0, 8) && param.length() > 8) {
+                    return param.substring(8).replace("\"", "");
+                }
+            }
+        }
+        return "utf-8";
     }
 
-    @Override
-    protected boolean useAsync() {
-        return false;
+    private synchronized CachedResponse getCachedResponse(String url) {
+        if (lastCached == null || !lastCached.url.equals(url)) {
+            lastCached = CachedResponse.load(url);
+        }
+        return lastCached;
     }
 
-    private HttpURLConnection createHttpRequest(CheckEntity entity) throws IOException {
-        if (entity.getMethod().equalsIgnoreCase("GET")) {
-            return createGetRequest(entity);
+    private synchronized void saveCachedResponse(CachedResponse response) {
+        if (response.hasValidator()) {
+            response.save();
+            lastCached = response;
         } else {
-            return createPostRequest(entity);
+            // 服务器不再返回校验信息时，清除旧缓存
+            CachedResponse.delete(response.url);
+            lastCached = null;
         }
+    }
 
+    @Override
+    protected boolean useAsync() {
+        return false;
     }
 
-    private HttpURLConnection createPostRequest(CheckEntity entity) throws IOException {
+    private HttpURLConnection createPostRequest(HttpTransport transport, CheckEntity entity) throws IOException {
         URL getUrl = new URL(entity.getUrl());
-        HttpURLConnection urlConn = (HttpURLConnection) getUrl.openConnection();
+        HttpURLConnection urlConn = transport.open(getUrl);
         urlConn.setDoOutput(true);
-        urlConn.setConnectTimeout(10000);
         urlConn.setRequestMethod("POST");
+        urlConn.setRequestProperty("Accept-Encoding", ACCEPT_ENCODING);
         String params = createParams(entity.getParams());
         urlConn.getOutputStream().write(params.getBytes("utf-8"));
         return urlConn;
     }
 
-    private HttpURLConnection createGetRequest(CheckEntity entity) throws IOException {
+    private String createGetUrl(CheckEntity entity) {
         StringBuilder builder = new StringBuilder(entity.getUrl());
         Map<String,String> params = entity.getParams();
         if (params.size() > 0) {
             builder.append("?").append(createParams(params));
         }
-        String url = builder.toString();
+        return builder.toString();
+    }
 
+    private HttpURLConnection createGetRequest(HttpTransport transport, String url, CachedResponse cached) throws IOException {
         URL getUrl = new URL(url);
-        HttpURLConnection urlConn = (HttpURLConnection) getUrl.openConnection();
+        HttpURLConnection urlConn = transport.open(getUrl);
         urlConn.setDoInput(true);
         urlConn.setUseCaches(false);
-        urlConn.setConnectTimeout(10000);
         urlConn.setRequestMethod("GET");
+        urlConn.setRequestProperty("Accept-Encoding", ACCEPT_ENCODING);
+        if (cached != null) {
+            if (cached.eTag.length() > 0) {
+                urlConn.setRequestProperty("If-None-Match", cached.eTag);
+            }
+            if (cached.lastModified.length() > 0) {
+                urlConn.setRequestProperty("If-Modified-Since", cached.lastModified);
+            }
+        }
         urlConn.connect();
         return urlConn;
     }
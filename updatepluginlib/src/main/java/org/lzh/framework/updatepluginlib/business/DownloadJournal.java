@@ -0,0 +1,419 @@
+/*
+ * Copyright (C) 2017 Haoge
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lzh.framework.updatepluginlib.business;
+
+import org.lzh.framework.updatepluginlib.util.ResumableDigest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * 下载断点记录文件。用于记录下载文件的已提交进度，以便下载中断后进行续传。
+ *
+ * <p>记录文件存放于下载文件的同级目录下，命名为<b>下载文件名.journal</b>。采用固定格式：
+ * <pre>
+ *     int  magic
+ *     int  version
+ *     long totalLength
+ *     UTF  eTag
+ *     UTF  lastModified
+ *     int  segmentCount
+ *     segmentCount * (long start, long end, long committed)
+ *     UTF  digestAlgorithm
+ *     int  digestStateLength
+ *     byte[] digestState
+ * </pre>
+ *
+ * <p>记录中同时保存了服务器返回的ETag与Last-Modified。续传时通过If-Range进行校验，以避免服务器文件被替换后拼接出损坏的文件。
+ *
+ * <p>当下载时进行了摘要计算时。摘要的计算状态将随进度一同保存。续传时可直接恢复，无需重新读取已下载的部分。
+ *
+ * <p>进度并不会在每次写入后立即保存。而是当未保存的数据量或者间隔时间超过阈值时才进行一次保存。
+ * 续传时以记录中的已提交进度为准，超出部分将被丢弃重新下载。
+ *
+ * @author haoge
+ */
+public final class DownloadJournal implements Closeable {
+
+    private static final int MAGIC = 0x55504A4C;
+    private static final int VERSION = 3;
+    private static final int MAX_SEGMENTS = 64;
+
+    // 进度保存阈值：未保存数据超过512KB或者距离上次保存超过1秒
+    private static final long CHECKPOINT_BYTES = 512 * 1024;
+    private static final long CHECKPOINT_INTERVAL = 1000;
+
+    private final File file;
+    private RandomAccessFile raf;
+
+    private long totalLength;
+    private String eTag = "";
+    private String lastModified = "";
+    private long[] starts = new long[0];
+    private long[] ends = new long[0];
+    private long[] committed = new long[0];
+
+    private ResumableDigest digest;
+    private String digestAlgorithm = "";
+    private byte[] digestState = new byte[0];
+
+    private long pendingBytes;
+    private long lastCheckpoint;
+
+    private DownloadJournal(File file) {
+        this.file = file;
+    }
+
+    /**
+     * 读取指定下载文件所对应的断点记录。当记录不存在或者无效时，返回一个空记录。
+     *
+     * @param target 下载文件
+     * @return 断点记录
+     */
+    public static DownloadJournal open(File target) {
+        DownloadJournal journal = new DownloadJournal(getJournalFile(target));
+        journal.load();
+        return journal;
+    }
+
+    /**
+     * 删除指定下载文件所对应的断点记录
+     * @param target 下载文件
+     */
+    public static void delete(File target) {
+        getJournalFile(target).delete();
+    }
+
+    private static File getJournalFile(File target) {
+        return new File(target.getParentFile(), target.getName() + ".journal");
+    }
+
+    /**
+     * 判断此记录是否可用于对指定长度的文件进行续传
+     * @param contentLength 服务器返回的文件长度
+     * @return True代表可续传
+     */
+    public synchronized boolean matches(long contentLength) {
+        return contentLength > 0
+                && totalLength == contentLength
+                && committed.length > 0;
+    }
+
+    /**
+     * @return True代表记录中的所有区段均已下载完成
+     */
+    public synchronized boolean isCompleted() {
+        return committed.length > 0 && totalLength > 0 && getCommittedLength() == totalLength;
+    }
+
+    public synchronized long getTotalLength() {
+        return totalLength;
+    }
+
+    public synchronized int getSegmentCount() {
+        return committed.length;
+    }
+
+    public synchronized long getStart(int segment) {
+        return starts[segment];
+    }
+
+    public synchronized long getEnd(int segment) {
+        return ends[segment];
+    }
+
+    public synchronized long getCommitted(int segment) {
+        return committed[segment];
+    }
+
+    /**
+     * @return 所有区段已提交的数据总长度
+     */
+    public synchronized long getCommittedLength() {
+        long length = 0;
+        for (long value : committed) {
+            length += value;
+        }
+        return length;
+    }
+
+    /**
+     * 设置服务器返回的文件校验信息。将随下次进度保存一同写入记录文件
+     *
+     * @param eTag 响应头中的ETag，可为null
+     * @param lastModified 响应头中的Last-Modified，可为null
+     */
+    public synchronized void setValidators(String eTag, String lastModified) {
+        this.eTag = eTag == null ? "" : eTag;
+        this.lastModified = lastModified == null ? "" : lastModified;
+    }
+
+    public synchronized String getETag() {
+        return eTag.length() == 0 ? null : eTag;
+    }
+
+    public synchronized String getLastModified() {
+        return lastModified.length() == 0 ? null : lastModified;
+    }
+
+    /**
+     * 获取续传时用于If-Range请求头的校验值。If-Range要求强校验，因此弱ETag不可用于续传
+     *
+     * @return 强ETag，不存在时使用Last-Modified。均不存在时返回null，此时不可续传
+     */
+    public synchronized String getIfRange() {
+        if (eTag.length() > 0 && !eTag.startsWith("W/")) {
+            return eTag;
+        }
+        return getLastModified();
+    }
+
+    /**
+     * 判断服务器返回的文件与此记录所对应的文件是否为同一个文件
+     *
+     * @param eTag 响应头中的ETag
+     * @param lastModified 响应头中的Last-Modified
+     * @return True代表为同一文件。当记录中不存在校验信息时返回false
+     */
+    public synchronized boolean isSameResource(String eTag, String lastModified) {
+        if (this.eTag.length() > 0) {
+            return this.eTag.equals(eTag);
+        }
+        return this.lastModified.length() > 0 && this.lastModified.equals(lastModified);
+    }
+
+    /**
+     * 恢复记录中所保存的摘要计算状态。
+     *
+     * @param algorithm 摘要算法
+     * @return 恢复的摘要实例。当记录中不存在此算法的计算状态时返回null
+     */
+    public synchronized ResumableDigest restoreDigest(String algorithm) {
+        if (!digestAlgorithm.equals(algorithm) || digestState.length == 0) {
+            return null;
+        }
+        try {
+            ResumableDigest digest = ResumableDigest.create(algorithm);
+            digest.restoreState(digestState);
+            return digest;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 获取已完成下载的文件摘要值。
+     *
+     * @param algorithm 摘要算法
+     * @return 十六进制小写形式的摘要值。当下载未完成或者记录中不存在覆盖整个文件的此算法摘要时返回null
+     */
+    public synchronized String getDigestHex(String algorithm) {
+        if (!isCompleted()) {
+            return null;
+        }
+        ResumableDigest digest = restoreDigest(algorithm);
+        return digest != null && digest.getLength() == totalLength ? digest.digestHex() : null;
+    }
+
+    /**
+     * 设置下载时使用的摘要实例。此后每次保存进度时将同时保存其计算状态。
+     *
+     * <p>调用方需保证摘要实例已计算的数据与已提交的进度一致。
+     *
+     * @param digest 摘要实例
+     */
+    public synchronized void setDigest(ResumableDigest digest) {
+        this.digest = digest;
+        this.digestAlgorithm = digest == null ? "" : digest.getAlgorithm();
+        this.digestState = new byte[0];
+    }
+
+    /**
+     * 当文件长度未知时。在下载完成后使用实际下载长度作为文件总长度。
+     *
+     * @throws IOException 写入记录失败
+     */
+    public synchronized void complete() throws IOException {
+        if (totalLength <= 0 && committed.length == 1) {
+            totalLength = committed[0];
+            ends[0] = totalLength - 1;
+        }
+        flush();
+    }
+
+    /**
+     * 使用单个区段重置此记录。用于单连接下载
+     *
+     * @param totalLength 文件总长度。未知时传入-1
+     * @throws IOException 写入记录失败
+     */
+    public void reset(long totalLength) throws IOException {
+        reset(totalLength, 1);
+    }
+
+    /**
+     * 将文件平均切分为指定个数的区段并重置此记录。文件校验信息将被一同清空
+     *
+     * @param totalLength 文件总长度。未知时传入-1，此时只能使用单个区段
+     * @param count 区段个数
+     * @throws IOException 写入记录失败
+     */
+    public synchronized void reset(long totalLength, int count) throws IOException {
+        if (count < 1 || count > MAX_SEGMENTS || (totalLength <= 0 && count != 1)) {
+            throw new IllegalArgumentException("Illegal segment count " + count + " for length " + totalLength);
+        }
+        this.totalLength = totalLength;
+        this.eTag = "";
+        this.lastModified = "";
+        this.starts = new long[count];
+        this.ends = new long[count];
+        this.committed = new long[count];
+        long segmentSize = totalLength / count;
+        for (int i = 0; i < count; i++) {
+            starts[i] = i * segmentSize;
+            ends[i] = i == count - 1 ? totalLength - 1 : starts[i] + segmentSize - 1;
+        }
+        this.digest = null;
+        this.digestAlgorithm = "";
+        this.digestState = new byte[0];
+        flush();
+    }
+
+    /**
+     * 提交指定区段新写入的数据长度。当达到保存阈值时将自动保存到记录文件中
+     *
+     * @param segment 区段索引
+     * @param length 新写入文件的数据长度
+     * @throws IOException 写入记录失败
+     */
+    public synchronized void commit(int segment, long length) throws IOException {
+        committed[segment] += length;
+        pendingBytes += length;
+        if (pendingBytes >= CHECKPOINT_BYTES
+                || System.currentTimeMillis() - lastCheckpoint >= CHECKPOINT_INTERVAL) {
+            flush();
+        }
+    }
+
+    /**
+     * 立即将当前进度保存到记录文件中
+     * @throws IOException 写入记录失败
+     */
+    public synchronized void flush() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128 + committed.length * 24);
+        DataOutputStream output = new DataOutputStream(bytes);
+        output.writeInt(MAGIC);
+        output.writeInt(VERSION);
+        output.writeLong(totalLength);
+        output.writeUTF(eTag);
+        output.writeUTF(lastModified);
+        output.writeInt(committed.length);
+        for (int i = 0; i < committed.length; i++) {
+            output.writeLong(starts[i]);
+            output.writeLong(ends[i]);
+            output.writeLong(committed[i]);
+        }
+        if (digest != null) {
+            digestState = digest.saveState();
+        }
+        output.writeUTF(digestAlgorithm);
+        output.writeInt(digestState.length);
+        output.write(digestState);
+
+        if (raf == null) {
+            raf = new RandomAccessFile(file, "rw");
+        }
+        byte[] record = bytes.toByteArray();
+        raf.seek(0);
+        raf.write(record);
+        raf.setLength(record.length);
+        pendingBytes = 0;
+        lastCheckpoint = System.currentTimeMillis();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (raf != null) {
+            if (pendingBytes > 0) {
+                flush();
+            }
+            raf.close();
+            raf = null;
+        }
+    }
+
+    private void load() {
+        if (!file.exists()) {
+            return;
+        }
+        DataInputStream input = null;
+        try {
+            input = new DataInputStream(new FileInputStream(file));
+            if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+                return;
+            }
+            long totalLength = input.readLong();
+            String eTag = input.readUTF();
+            String lastModified = input.readUTF();
+            int count = input.readInt();
+            if (count < 1 || count > MAX_SEGMENTS) {
+                return;
+            }
+            long[] starts = new long[count];
+            long[] ends = new long[count];
+            long[] committed = new long[count];
+            for (int i = 0; i < count; i++) {
+                starts[i] = input.readLong();
+                ends[i] = input.readLong();
+                committed[i] = input.readLong();
+                if (committed[i] < 0 || (totalLength > 0 && committed[i] > ends[i] - starts[i] + 1)) {
+                    return;
+                }
+            }
+            String digestAlgorithm = input.readUTF();
+            int stateLength = input.readInt();
+            if (stateLength < 0 || stateLength > 1024) {
+                return;
+            }
+            byte[] digestState = new byte[stateLength];
+            input.readFully(digestState);
+            this.digestAlgorithm = digestAlgorithm;
+            this.digestState = digestState;
+            this.totalLength = totalLength;
+            this.eTag = eTag;
+            this.lastModified = lastModified;
+            this.starts = starts;
+            this.ends = ends;
+            this.committed = committed;
+        } catch (IOException e) {
+            // 记录文件损坏时视为无记录，重新下载
+        } finally {
+            if (input != null) {
+                try {
+                    input.close();
+                } catch (IOException ignore) {
+                    // ignore
+                }
+            }
+        }
+    }
+}
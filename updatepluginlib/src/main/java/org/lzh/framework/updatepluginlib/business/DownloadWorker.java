@@ -15,20 +15,42 @@
  */
 package org.lzh.framework.updatepluginlib.business;
 
+import android.content.Context;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageManager;
+import android.util.Log;
+
 import org.lzh.framework.updatepluginlib.UpdateBuilder;
+import org.lzh.framework.updatepluginlib.UpdateTask;
 import org.lzh.framework.updatepluginlib.callback.DefaultDownloadCB;
+import org.lzh.framework.updatepluginlib.callback.UpdateCancelCB;
+import org.lzh.framework.updatepluginlib.callback.UpdatePauseCB;
 import org.lzh.framework.updatepluginlib.callback.UpdateDownloadCB;
+import org.lzh.framework.updatepluginlib.model.DeltaManifest;
+import org.lzh.framework.updatepluginlib.model.Patch;
 import org.lzh.framework.updatepluginlib.model.Update;
+import org.lzh.framework.updatepluginlib.util.ActivityManager;
 import org.lzh.framework.updatepluginlib.util.Recyclable;
+import org.lzh.framework.updatepluginlib.util.UpdatePreference;
+import org.lzh.framework.updatepluginlib.util.ResumableDigest;
 import org.lzh.framework.updatepluginlib.util.Utils;
 
 import java.io.File;
+import java.io.InterruptedIOException;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * <b>核心操作类</b>
  *
  * 此为下载任务的封装基类。主要用于对下载中的进度、状态进行派发。以起到连接更新流程作用
  *
+ * <p>当更新数据中存在与已安装apk版本对应的增量数据时，将优先下载增量数据并与已安装的apk合成新版本apk。优先级为：
+ * <ol>
+ *     <li>基于zip条目的增量更新清单：{@link Update#getDeltaManifest()}</li>
+ *     <li>二进制差分包：{@link Update#findPatch(int)}</li>
+ * </ol>
+ * 增量数据下载或合成失败时，自动降级为下载完整apk。此过程对{@link #download(String, File)}的实现类透明。
+ *
  * @author lzh
  */
 public abstract class DownloadWorker extends UnifiedWorker implements Runnable,Recyclable {
@@ -36,27 +58,92 @@ public abstract class DownloadWorker extends UnifiedWorker implements Runnable,R
     /**
      * {@link DefaultDownloadCB}的实例。用于接收下载状态并进行后续流程通知
      */
-    private DefaultDownloadCB downloadCB;
+    private volatile DefaultDownloadCB downloadCB;
 
     protected Update update;
     protected UpdateBuilder builder;
 
+    // 正在下载中的增量数据文件及其合成目标文件。为null时代表当前下载的是完整apk
+    private volatile File deltaFile;
+    private volatile File apkFile;
+    // 增量数据对应的更新清单。为null时代表增量数据为二进制差分包
+    private volatile DeltaManifest deltaManifest;
+    // 增量更新已失败。重试时直接下载完整apk
+    private volatile boolean skipDelta;
+    // 是否为后台静默下载。后台静默下载在应用处于前台时将被限速
+    private volatile boolean background;
+    private final RateLimiter rateLimiter = new RateLimiter();
+    // 正在执行下载的线程。用于取消或暂停时中断等待
+    private Thread runner;
+    // 当前下载是否已暂停
+    private volatile boolean paused;
+    // 当前是否为暂停后恢复的下载
+    private volatile boolean resuming;
+    // 当前下载是否因让位于高优先级任务而被中止。中止后将重新排队并从已下载的位置继续
+    private volatile boolean preempted;
+
     public void setUpdate(Update update) {
         this.update = update;
+        // 开始新的下载，之前暂停的下载不再恢复
+        this.paused = false;
     }
 
     public void setUpdateBuilder(UpdateBuilder builder) {
         this.builder = builder;
     }
 
-    public void setDownloadCB(DefaultDownloadCB downloadCB) {
+    /**
+     * @return 当前任务所属的更新任务实例
+     */
+    public UpdateBuilder getUpdateBuilder() {
+        return builder;
+    }
+
+    public synchronized void setDownloadCB(DefaultDownloadCB downloadCB) {
         this.downloadCB = downloadCB;
     }
 
+    /**
+     * 设置此次下载是否为后台静默下载。用户主动触发的下载应设置为false，此时将不进行限速
+     * @param background True代表为后台静默下载
+     * @see UpdateBuilder#backgroundDownloadRate(long)
+     */
+    public void setBackground(boolean background) {
+        this.background = background;
+    }
+
+    public boolean isBackground() {
+        return background;
+    }
+
     @Override
     public void run() {
+        synchronized (this) {
+            runner = Thread.currentThread();
+        }
         try {
-            sendDownloadStart();
+            if (isCancelled()) {
+                sendDownloadCancel();
+                return;
+            }
+            if (paused) {
+                sendDownloadPause();
+                return;
+            }
+            boolean requeued = preempted;
+            preempted = false;
+            // 停止下载到同一文件的预热任务，沿用其已下载的部分
+            WarmUpTask.stop(getTargetFile());
+            if (requeued) {
+                // 让位后继续下载：无需重复通知
+                Log.d("DownloadWorker", "Continue the download preempted by a higher priority task");
+            } else if (resuming) {
+                resuming = false;
+                sendDownloadResume();
+            } else if (!isRetrying()) {
+                skipDelta = false;
+                sendDownloadStart();
+            }
             File cacheFile = builder.getFileCreator().create(update);
             if (cacheFile != null && cacheFile.exists()
                     && builder.getFileChecker().checkForDownload(update, cacheFile.getAbsolutePath())) {
@@ -66,10 +153,217 @@ public abstract class DownloadWorker extends UnifiedWorker implements Runnable,R
             }
             String url = update.getUpdateUrl();
             cacheFile.getParentFile().mkdirs();
+
+            int installedVersion = skipDelta ? -1 : getInstalledVersionCode();
+            DeltaManifest manifest = update.getDeltaManifest();
+            if (manifest != null && manifest.getPayloadUrl() != null
+                    && manifest.getBaseVersionCode() == installedVersion) {
+                apkFile = cacheFile;
+                deltaManifest = manifest;
+                deltaFile = new File(cacheFile.getParentFile(), cacheFile.getName() + ".delta");
+                download(manifest.getPayloadUrl(), deltaFile);
+                return;
+            }
+
+            Patch patch = installedVersion < 0 ? null : update.findPatch(installedVersion);
+            if (patch != null) {
+                apkFile = cacheFile;
+                deltaFile = new File(cacheFile.getParentFile(), cacheFile.getName() + ".patch");
+                download(patch.getPatchUrl(), deltaFile);
+                return;
+            }
             download(url,cacheFile);
         } catch (Throwable e) {
             sendDownloadError(e);
+        } finally {
+            synchronized (this) {
+                if (runner == Thread.currentThread()) {
+                    runner = null;
+                }
+                // 清除取消或暂停时设置的中断状态，避免影响线程池中的后续任务
+                Thread.interrupted();
+            }
+        }
+    }
+
+    /**
+     * 取消当前的下载任务。已下载的部分将被保留，下次下载时继续。下载回调将收到{@link UpdateCancelCB#onDownloadCancel()}通知，不再通知出错。
+     *
+     * <p>将中断下载线程中的等待，唤醒所有阻塞于限速中的连接，并通过{@link #onAbort()}通知实现类中止网络读取
+     */
+    @Override
+    public final void cancel() {
+        super.cancel();
+        if (paused && !isRunning()) {
+            // 已暂停的下载：直接结束
+            paused = false;
+            clearPausedRecord();
+            sendDownloadCancel();
+            return;
+        }
+        if (cancelRetry()) {
+            sendDownloadCancel();
+            return;
         }
+        abort();
+    }
+
+    /**
+     * 暂停当前的下载任务。已下载的进度将被立即保存，下载回调将收到{@link UpdatePauseCB#onDownloadPause()}通知。
+     *
+     * <p>暂停状态将被持久化：进程重启后，同一文件的后台静默下载不会自动开始，直到通过{@link UpdateTask#resume()}恢复或者用户主动下载
+     */
+    public final void pause() {
+        if (!isRunning() || isCancelled() || paused) {
+            return;
+        }
+        paused = true;
+        if (cancelRetry()) {
+            sendDownloadPause();
+            return;
+        }
+        abort();
+    }
+
+    /**
+     * 恢复已暂停的下载任务。将从已保存的进度处继续下载，下载回调将收到{@link UpdatePauseCB#onDownloadResume()}通知
+     */
+    public final void resume() {
+        synchronized (this) {
+            if (!paused || executor == null || !acquire()) {
+                return;
+            }
+            paused = false;
+            resuming = true;
+        }
+        clearPausedRecord();
+        executor.download(this);
+    }
+
+    /**
+     * @return True代表当前下载已暂停
+     */
+    public final boolean isPaused() {
+        return paused;
+    }
+
+    /**
+     * @return True代表当前下载已被取消或暂停，此时应中止读取
+     */
+    protected final boolean isAborted() {
+        return isCancelled() || paused || preempted;
+    }
+
+    /**
+     * 为更高优先级的下载让位：中止当前下载并重新排队，之后从已下载的位置继续
+     */
+    final void preempt() {
+        if (!isRunning() || isAborted()) {
+            return;
+        }
+        Log.d("DownloadWorker", "Preempt download for a higher priority task");
+        preempted = true;
+        abort();
+    }
+
+    private void abort() {
+        synchronized (this) {
+            if (runner != null) {
+                runner.interrupt();
+            }
+        }
+        onAbort();
+        // 唤醒阻塞于限速中的连接(如分段下载的各区段线程)，使其立即检查中止状态
+        rateLimiter.wakeUp();
+    }
+
+    /**
+     * 下载任务被取消或暂停时的回调。运行于调用{@link #cancel()}或{@link #pause()}的线程
+     *
+     * <p>定制下载任务时，可复写此方法以断开正在使用的连接，使阻塞中的读取立即结束。也可在读取过程中通过{@link #isAborted()}判断是否需要停止。
+     * 已下载的进度需在中止时保存，以便恢复时继续
+     */
+    protected void onAbort() {
+    }
+
+    /**
+     * 获取可用于增量更新的已安装apk版本号
+     * @return 已安装的apk版本号。当更新数据中不存在增量数据或者无法读取已安装的apk时返回-1
+     */
+    private int getInstalledVersionCode() {
+        if (update.getDeltaManifest() == null && update.getPatches().isEmpty()) {
+            return -1;
+        }
+        try {
+            Context context = ActivityManager.get().getApplicationContext();
+            PackageManager pm = context.getPackageManager();
+            int versionCode = pm.getPackageInfo(context.getPackageName(), 0).versionCode;
+            return getInstalledApk().canRead() ? versionCode : -1;
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+
+    private File getInstalledApk() {
+        ApplicationInfo info = ActivityManager.get().getApplicationContext().getApplicationInfo();
+        return new File(info.sourceDir);
+    }
+
+    /**
+     * 增量数据下载完成：与已安装的apk进行合成并校验。合成或者校验失败时降级为下载完整apk
+     */
+    private void onDeltaDownloaded(File delta, DeltaManifest manifest, File target) {
+        try {
+            String algorithm = ResumableDigest.getAlgorithm(update);
+            ResumableDigest digest = algorithm == null ? null : ResumableDigest.create(algorithm);
+            long length = manifest != null
+                    ? ApkDeltaMerger.merge(getInstalledApk(), delta, target, manifest, digest)
+                    : BsPatcher.patch(getInstalledApk(), delta, target, digest);
+
+            // 记录合成结果及其摘要。供文件检查器直接使用，无需重新读取文件
+            DownloadJournal journal = DownloadJournal.open(target);
+            journal.reset(length);
+            journal.setDigest(digest);
+            journal.commit(0, length);
+            journal.close();
+
+            if (!builder.getFileChecker().checkForDownload(update, target.getAbsolutePath())) {
+                throw new IllegalStateException("Check failed for the apk merged by delta");
+            }
+            deleteDelta(delta);
+            sendDownloadComplete(target);
+        } catch (Throwable t) {
+            deleteDelta(delta);
+            downloadFullApk(target, t);
+        }
+    }
+
+    /**
+     * 增量数据下载或合成失败时。降级为下载完整apk
+     */
+    private void downloadFullApk(File target, Throwable cause) {
+        Log.e("DownloadWorker", "Update by delta failed, fallback to download the full apk", cause);
+        skipDelta = true;
+        target.delete();
+        DownloadJournal.delete(target);
+        try {
+            download(update.getUpdateUrl(), target);
+        } catch (Throwable t) {
+            sendDownloadError(t);
+        }
+    }
+
+    /**
+     * @param target 下载文件
+     * @return True代表此文件为正在下载中的增量数据
+     */
+    final boolean isDeltaFile(File target) {
+        return target.equals(deltaFile);
+    }
+
+    private void deleteDelta(File delta) {
+        delta.delete();
+        DownloadJournal.delete(delta);
     }
 
     /**
@@ -90,14 +384,48 @@ public abstract class DownloadWorker extends UnifiedWorker implements Runnable,R
      */
     protected abstract void download(String url, File target) throws Exception;
 
+    /**
+     * 获取当前的下载限速。以下情况将进行限速，同时满足时取较低的速度：
+     * <ol>
+     *     <li>后台静默下载且应用处于前台时，以免影响应用自身的网络请求</li>
+     *     <li>存在更高优先级的下载正在运行或等待时，让出带宽({@link UpdateExecutor#setYieldRate(long)})</li>
+     * </ol>
+     *
+     * @return 限制速度，单位：字节/秒。返回0时代表不限速
+     */
+    protected final long getDownloadRate() {
+        long rate = builder.getBackgroundDownloadRate();
+        rate = rate > 0 && background && ActivityManager.get().isForeground() ? rate : 0;
+        UpdateExecutor executor = this.executor;
+        long yieldRate = executor == null ? 0 : executor.getYieldRate(getPriority());
+        if (yieldRate > 0 && (rate <= 0 || yieldRate < rate)) {
+            rate = yieldRate;
+        }
+        return rate;
+    }
+
+    /**
+     * 按当前的下载限速进行流量控制。定制下载任务时，可在每次写入数据后调用此方法以支持限速
+     *
+     * @param length 此次写入的数据长度
+     * @throws InterruptedIOException 等待时线程被中断，或者下载被取消、暂停
+     */
+    protected final void throttle(int length) throws InterruptedIOException {
+        if (isAborted()) {
+            throw new InterruptedIOException("Download task was aborted");
+        }
+        rateLimiter.acquire(length, getDownloadRate());
+    }
+
     final void sendDownloadStart() {
-        if (downloadCB == null) return;
+        final DefaultDownloadCB callback = downloadCB;
+        if (callback == null) return;
 
         Utils.getMainHandler().post(new Runnable() {
             @Override
             public void run() {
-                if (downloadCB == null) return;
-                downloadCB.onDownloadStart();
+                if (downloadCB != callback) return;
+                callback.onDownloadStart();
             }
         });
     }
@@ -108,13 +436,14 @@ public abstract class DownloadWorker extends UnifiedWorker implements Runnable,R
      * @param total 下载文件总长度
      */
     public final void sendDownloadProgress(final long current, final long total) {
-        if (downloadCB == null) return;
+        final DefaultDownloadCB callback = downloadCB;
+        if (callback == null) return;
 
         Utils.getMainHandler().post(new Runnable() {
             @Override
             public void run() {
-                if (downloadCB == null) return;
-                downloadCB.onDownloadProgress(current, total);
+                if (downloadCB != callback) return;
+                callback.onDownloadProgress(current, total);
             }
         });
     }
@@ -124,32 +453,182 @@ public abstract class DownloadWorker extends UnifiedWorker implements Runnable,R
      * @param file 被下载的文件
      */
     public final void sendDownloadComplete(final File file) {
+        if (isCancelled()) {
+            // 文件已完整下载并保留，下次将直接使用
+            sendDownloadCancel();
+            return;
+        }
+        // 暂停或让位前已下载完成：按正常完成处理
+        paused = false;
+        preempted = false;
+        File delta = deltaFile;
+        if (delta != null && delta.equals(file)) {
+            DeltaManifest manifest = deltaManifest;
+            deltaFile = null;
+            deltaManifest = null;
+            onDeltaDownloaded(delta, manifest, apkFile);
+            return;
+        }
+        final DefaultDownloadCB callback = downloadCB;
         setRunning(false);
-        if (downloadCB == null) return;
+        if (callback == null) return;
         Utils.getMainHandler().post(new Runnable() {
             @Override
             public void run() {
-                if (downloadCB == null) return;
-                downloadCB.onDownloadComplete(file);
-                release();
+                callback.onDownloadComplete(file);
+                release(callback);
             }
         });
     }
 
     /**
      * 通知当前下载任务出错。当下载出错时，此回调必须被调用
+     *
+     * <p>当符合重试策略({@link UpdateBuilder#getRetryPolicy()})时，将在等待后自动重新下载
      * @param t 错误异常信息
      */
     public final void sendDownloadError(final Throwable t) {
+        if (isCancelled()) {
+            // 取消导致的出错：保留已下载的部分
+            sendDownloadCancel();
+            return;
+        }
+        if (paused) {
+            sendDownloadPause();
+            return;
+        }
+        if (preempted && executor != null) {
+            // 让位于高优先级任务：重新排队，等待高优先级任务执行后继续
+            deltaFile = null;
+            deltaManifest = null;
+            executor.download(this);
+            return;
+        }
+        File delta = deltaFile;
+        if (delta != null) {
+            deltaFile = null;
+            deltaManifest = null;
+            deleteDelta(delta);
+            downloadFullApk(apkFile, t);
+            return;
+        }
+        if (downloadCB != null && scheduleRetry(builder.getRetryPolicy(), t, new Runnable() {
+            @Override
+            public void run() {
+                executor.download(DownloadWorker.this);
+            }
+        })) {
+            return;
+        }
+        postDownloadError(t);
+    }
+
+    /**
+     * 通知当前下载任务已被取消
+     */
+    private void sendDownloadCancel() {
+        deltaFile = null;
+        deltaManifest = null;
+        final DefaultDownloadCB callback = downloadCB;
+        setRunning(false);
+        if (callback == null) return;
+
+        Utils.getMainHandler().post(new Runnable() {
+            @Override
+            public void run() {
+                callback.onDownloadCancel();
+                release(callback);
+            }
+        });
+    }
+
+    /**
+     * 通知当前下载任务已暂停。保留下载回调，以便恢复时继续通知
+     */
+    private void sendDownloadPause() {
+        deltaFile = null;
+        deltaManifest = null;
+        savePausedRecord();
+        final DefaultDownloadCB callback = downloadCB;
+        setRunning(false);
+        if (callback == null) return;
+
+        Utils.getMainHandler().post(new Runnable() {
+            @Override
+            public void run() {
+                callback.onDownloadPause();
+            }
+        });
+    }
+
+    private void sendDownloadResume() {
+        final DefaultDownloadCB callback = downloadCB;
+        if (callback == null) return;
+
+        Utils.getMainHandler().post(new Runnable() {
+            @Override
+            public void run() {
+                if (downloadCB != callback) return;
+                callback.onDownloadResume();
+            }
+        });
+    }
+
+    /**
+     * 释放已结束任务的回调。任务已被新的请求占用并设置了新的回调时，保留新的回调
+     */
+    private synchronized void release(DefaultDownloadCB callback) {
+        if (downloadCB == callback) {
+            release();
+        }
+    }
+
+    /**
+     * @return 下载的目标文件。无法获取时返回null
+     */
+    final File getTargetFile() {
+        return getTargetFile(update, builder);
+    }
+
+    static File getTargetFile(Update update, UpdateBuilder builder) {
+        try {
+            return builder.getFileCreator().create(update);
+        } catch (Throwable t) {
+            return null;
+        }
+    }
+
+    private void savePausedRecord() {
+        try {
+            UpdatePreference.savePausedDownload(builder.getFileCreator().create(update).getAbsolutePath());
+        } catch (Throwable t) {
+            Log.e("DownloadWorker", "Save paused download failed", t);
+        }
+    }
+
+    private void clearPausedRecord() {
+        try {
+            UpdatePreference.removePausedDownload(builder.getFileCreator().create(update).getAbsolutePath());
+        } catch (Throwable t) {
+            Log.e("DownloadWorker", "Remove paused download failed", t);
+        }
+    }
+
+    @Override
+    void onRejected(RejectedExecutionException e) {
+        postDownloadError(e);
+    }
+
+    private void postDownloadError(final Throwable t) {
+        final DefaultDownloadCB callback = downloadCB;
         setRunning(false);
-        if (downloadCB == null) return;
+        if (callback == null) return;
 
         Utils.getMainHandler().post(new Runnable() {
             @Override
             public void run() {
-                if (downloadCB == null) return;
-                downloadCB.onDownloadError(t);
-                release();
+                callback.onDownloadError(t);
+                release(callback);
             }
         });
     }
@@ -23,12 +23,23 @@ public class HttpException extends RuntimeException {
 
     private int code;
     private String errorMsg;
+    private long retryAfter = -1;
 
     public HttpException (int code,String errorMsg) {
         this.code = code;
         this.errorMsg = errorMsg;
     }
 
+    /**
+     * @param code 响应码
+     * @param errorMsg 响应信息
+     * @param retryAfter 服务器通过Retry-After响应头建议的重试等待时长，单位毫秒。小于0时代表未提供
+     */
+    public HttpException (int code,String errorMsg,long retryAfter) {
+        this(code, errorMsg);
+        this.retryAfter = retryAfter;
+    }
+
     public int getCode() {
         return code;
     }
@@ -36,4 +47,11 @@ public class HttpException extends RuntimeException {
     public String getErrorMsg() {
         return errorMsg;
     }
+
+    /**
+     * @return 服务器建议的重试等待时长，单位毫秒。小于0时代表未提供
+     */
+    public long getRetryAfter() {
+        return retryAfter;
+    }
 }
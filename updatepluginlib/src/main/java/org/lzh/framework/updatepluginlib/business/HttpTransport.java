@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2017 Haoge
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lzh.framework.updatepluginlib.business;
+
+import org.lzh.framework.updatepluginlib.UpdateBuilder;
+import org.lzh.framework.updatepluginlib.UpdateConfig;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * 检查更新与下载任务共用的网络连接管理。通过{@link UpdateConfig#httpTransport(HttpTransport)}或者{@link UpdateBuilder#httpTransport(HttpTransport)}进行配置
+ *
+ * <p>通过{@link #open(URL)}创建的连接统一使用此处配置的连接、读取超时。使用完毕后应通过{@link #release(HttpURLConnection)}归还：
+ * 读取并丢弃少量未读完的数据后关闭数据流，使底层连接回到系统的keep-alive连接池中被后续请求复用，
+ * 从而避免检查更新、镜像测速、下载等各阶段重复进行TCP及TLS握手。出错或者取消时通过{@link #disconnect(HttpURLConnection)}直接断开。
+ *
+ * <p>连接池的最大空闲连接数及空闲超时通过系统属性http.maxConnections、http.keepAliveDuration作用于系统的连接池，
+ * 只在进程内首次建立网络连接前设置才会生效。
+ *
+ * <p>若需使用其他网络库(如通过OkHttp提供的HttpURLConnection实现)，复写{@link #open(URL)}即可。
+ *
+ * @author haoge
+ */
+public class HttpTransport {
+
+    // 归还连接时最多读取并丢弃的剩余数据长度。超出时直接断开连接
+    private static final int MAX_DRAIN_LENGTH = 64 * 1024;
+    private static volatile boolean poolConfigured;
+
+    private int connectTimeout = 10000;
+    private int readTimeout = 30000;
+    private int maxIdleConnections = 5;
+    private long keepAliveDuration = 5 * 60 * 1000;
+
+    /**
+     * @param connectTimeout 连接超时，单位毫秒。默认为10000
+     * @return itself
+     */
+    public HttpTransport setConnectTimeout(int connectTimeout) {
+        this.connectTimeout = Math.max(0, connectTimeout);
+        return this;
+    }
+
+    /**
+     * @param readTimeout 读取超时，即两次读取到数据之间的最大间隔，单位毫秒。默认为30000
+     * @return itself
+     */
+    public HttpTransport setReadTimeout(int readTimeout) {
+        this.readTimeout = Math.max(0, readTimeout);
+        return this;
+    }
+
+    /**
+     * @param maxIdleConnections 连接池中保持的最大空闲连接数。默认为5
+     * @return itself
+     */
+    public HttpTransport setMaxIdleConnections(int maxIdleConnections) {
+        this.maxIdleConnections = Math.max(1, maxIdleConnections);
+        return this;
+    }
+
+    /**
+     * @param keepAliveDuration 空闲连接在连接池中保持的时长，单位毫秒。默认为5分钟
+     * @return itself
+     */
+    public HttpTransport setKeepAliveDuration(long keepAliveDuration) {
+        this.keepAliveDuration = Math.max(0, keepAliveDuration);
+        return this;
+    }
+
+    public int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    public int getReadTimeout() {
+        return readTimeout;
+    }
+
+    public int getMaxIdleConnections() {
+        return maxIdleConnections;
+    }
+
+    public long getKeepAliveDuration() {
+        return keepAliveDuration;
+    }
+
+    /**
+     * 创建一个应用了超时配置的连接
+     *
+     * @param url 请求地址
+     * @return 未建立的连接
+     * @throws IOException 创建失败
+     */
+    public HttpURLConnection open(URL url) throws IOException {
+        configurePool();
+        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+        conn.setConnectTimeout(connectTimeout);
+        conn.setReadTimeout(readTimeout);
+        return conn;
+    }
+
+    /**
+     * 归还使用完毕的连接。读取并丢弃剩余数据后关闭数据流，使底层连接可被复用。剩余数据过多或者读取出错时直接断开
+     *
+     * @param conn 已获取到响应的连接
+     */
+    public void release(HttpURLConnection conn) {
+        if (conn == null) return;
+        try {
+            InputStream input = conn.getResponseCode() >= 400 ? conn.getErrorStream() : conn.getInputStream();
+            if (input == null) {
+                return;
+            }
+            try {
+                if (!drain(input)) {
+                    conn.disconnect();
+                }
+            } finally {
+                input.close();
+            }
+        } catch (IOException e) {
+            conn.disconnect();
+        }
+    }
+
+    /**
+     * 直接断开连接。用于出错或者取消时
+     *
+     * @param conn 连接
+     */
+    public void disconnect(HttpURLConnection conn) {
+        if (conn != null) {
+            conn.disconnect();
+        }
+    }
+
+    /**
+     * @return True代表已读取到数据末尾
+     */
+    private boolean drain(InputStream input) throws IOException {
+        byte[] buffer = new byte[4096];
+        int drained = 0;
+        int count;
+        while ((count = input.read(buffer)) != -1) {
+            drained += count;
+            if (drained > MAX_DRAIN_LENGTH) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void configurePool() {
+        if (poolConfigured) return;
+        synchronized (HttpTransport.class) {
+            if (poolConfigured) return;
+            poolConfigured = true;
+            setPropertyIfAbsent("http.keepAlive", "true");
+            setPropertyIfAbsent("http.maxConnections", String.valueOf(maxIdleConnections));
+            setPropertyIfAbsent("http.keepAliveDuration", String.valueOf(keepAliveDuration));
+        }
+    }
+
+    private static void setPropertyIfAbsent(String key, String value) {
+        if (System.getProperty(key) == null) {
+            System.setProperty(key, value);
+        }
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2017 Haoge
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lzh.framework.updatepluginlib.business;
+
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 用于对多个镜像地址进行测速排序。
+ *
+ * <p>对所有地址并行发起一个只请求首字节的轻量请求(Range: bytes=0-0)，以响应耗时作为测速结果。
+ * 第一个地址响应成功后，再等待同等时长以便其他响应接近的地址参与排序，超时未响应的地址排在已响应的地址之后。
+ * 测速失败的地址将被移除。
+ *
+ * @author haoge
+ */
+final class MirrorSelector {
+
+    // 测速请求的最大等待时长
+    private static final long PROBE_TIMEOUT = 5000;
+    // 第一个地址响应后，最多再等待其他地址的时长
+    private static final long MAX_GRACE = 1000;
+
+    private MirrorSelector() {}
+
+    /**
+     * 对镜像地址进行测速排序
+     *
+     * @param urls 镜像地址列表
+     * @param transport 网络连接管理。测速成功的连接将被归还，以便随后的下载复用
+     * @return 按速度由快到慢排序后的地址列表。当所有地址均测速失败时。按原顺序返回
+     */
+    static List<URL> rank(List<URL> urls, HttpTransport transport) throws InterruptedException {
+        if (urls.size() <= 1) {
+            return urls;
+        }
+        CountDownLatch first = new CountDownLatch(1);
+        CountDownLatch all = new CountDownLatch(urls.size());
+        List<Probe> probes = new ArrayList<>(urls.size());
+        for (int i = 0; i < urls.size(); i++) {
+            Probe probe = new Probe(transport, urls.get(i), i, first, all);
+            probes.add(probe);
+            Thread thread = new Thread(probe, "Update Mirror Probe-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        long start = System.currentTimeMillis();
+        if (first.await(PROBE_TIMEOUT, TimeUnit.MILLISECONDS)) {
+            long grace = Math.min(MAX_GRACE, System.currentTimeMillis() - start);
+            all.await(grace, TimeUnit.MILLISECONDS);
+        }
+
+        List<Probe> ranked = new ArrayList<>(probes.size());
+        for (Probe probe : probes) {
+            if (!probe.failed) {
+                ranked.add(probe);
+            }
+            probe.cancel();
+        }
+        if (ranked.isEmpty()) {
+            return urls;
+        }
+        Collections.sort(ranked, new Comparator<Probe>() {
+            @Override
+            public int compare(Probe lhs, Probe rhs) {
+                // 未完成测速的地址排在最后，并保持原有顺序
+                long left = lhs.latency < 0 ? Long.MAX_VALUE : lhs.latency;
+                long right = rhs.latency < 0 ? Long.MAX_VALUE : rhs.latency;
+                if (left != right) {
+                    return left < right ? -1 : 1;
+                }
+                return lhs.order - rhs.order;
+            }
+        });
+        List<URL> result = new ArrayList<>(ranked.size());
+        for (Probe probe : ranked) {
+            result.add(probe.url);
+        }
+        return result;
+    }
+
+    private static class Probe implements Runnable {
+        private final HttpTransport transport;
+        private final URL url;
+        private final int order;
+        private final CountDownLatch first;
+        private final CountDownLatch all;
+
+        private HttpURLConnection conn;
+        private boolean canceled;
+        private volatile long latency = -1;
+        private volatile boolean failed;
+
+        Probe(HttpTransport transport, URL url, int order, CountDownLatch first, CountDownLatch all) {
+            this.transport = transport;
+            this.url = url;
+            this.order = order;
+            this.first = first;
+            this.all = all;
+        }
+
+        @Override
+        public void run() {
+            long start = System.currentTimeMillis();
+            HttpURLConnection conn = null;
+            try {
+                conn = transport.open(url);
+                if (!attach(conn)) {
+                    return;
+                }
+                conn.setRequestMethod("GET");
+                conn.setRequestProperty("Range", "bytes=0-0");
+                conn.setConnectTimeout((int) PROBE_TIMEOUT);
+                conn.setReadTimeout((int) PROBE_TIMEOUT);
+                int responseCode = conn.getResponseCode();
+                if (responseCode == HttpURLConnection.HTTP_OK || responseCode == HttpURLConnection.HTTP_PARTIAL) {
+                    latency = System.currentTimeMillis() - start;
+                    first.countDown();
+                } else {
+                    failed = true;
+                }
+            } catch (Exception e) {
+                failed = true;
+            } finally {
+                finish(conn);
+                all.countDown();
+            }
+        }
+
+        private synchronized boolean attach(HttpURLConnection conn) {
+            this.conn = conn;
+            return !canceled;
+        }
+
+        /**
+         * 测速结束：成功时归还连接以便复用，否则断开
+         */
+        private synchronized void finish(HttpURLConnection conn) {
+            if (conn == null) return;
+            if (!failed && !canceled) {
+                transport.release(conn);
+            } else {
+                transport.disconnect(conn);
+            }
+            this.conn = null;
+        }
+
+        /**
+         * 取消仍在进行中的测速
+         */
+        synchronized void cancel() {
+            canceled = true;
+            transport.disconnect(conn);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2017 Haoge
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lzh.framework.updatepluginlib.business;
+
+import java.io.InterruptedIOException;
+
+/**
+ * 基于令牌桶算法的下载限速器。可被多个下载连接共享，各连接的总速度不超过限制速度。
+ *
+ * <p>令牌以限制速度持续生成，最多积攒1秒的量。每次写入前先预支所需令牌，令牌不足时等待至其补足。
+ * 限制速度可在每次获取时动态变化，传入0时代表不限速，此时将清空所有积攒与预支的令牌。
+ * 下载被中止时可通过{@link #wakeUp()}立即唤醒所有等待中的连接。
+ *
+ * @author haoge
+ */
+final class RateLimiter {
+
+    private static final long NANOS_PER_SECOND = 1000000000L;
+
+    private double tokens;
+    private long lastRefill = System.nanoTime();
+    // 每次唤醒时递增，等待中的线程据此判断是否被唤醒
+    private int generation;
+
+    /**
+     * 获取指定数量的令牌。令牌不足时阻塞等待
+     *
+     * @param permits 所需令牌数，即将要传输的字节数
+     * @param rate 当前的限制速度，单位：字节/秒。小于等于0时代表不限速
+     * @throws InterruptedIOException 等待时线程被中断或者通过{@link #wakeUp()}被唤醒
+     */
+    synchronized void acquire(int permits, long rate) throws InterruptedIOException {
+        long now = System.nanoTime();
+        if (rate <= 0) {
+            tokens = 0;
+            lastRefill = now;
+            return;
+        }
+        tokens = Math.min(rate, tokens + (now - lastRefill) * (double) rate / NANOS_PER_SECOND);
+        lastRefill = now;
+        tokens -= permits;
+        if (tokens >= 0) {
+            return;
+        }
+        long deadline = now + (long) (-tokens * NANOS_PER_SECOND / rate);
+        int generation = this.generation;
+        try {
+            // 等待期间释放锁，其他连接可继续预支令牌
+            long remaining;
+            while ((remaining = deadline - System.nanoTime()) > 0) {
+                wait(remaining / 1000000, (int) (remaining % 1000000));
+                if (generation != this.generation) {
+                    throw new InterruptedIOException("Download was aborted while waiting for bandwidth");
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for download bandwidth");
+        }
+    }
+
+    /**
+     * 唤醒所有等待中的线程，使其以{@link InterruptedIOException}结束等待。同时清空所有积攒与预支的令牌
+     */
+    synchronized void wakeUp() {
+        generation++;
+        tokens = 0;
+        lastRefill = System.nanoTime();
+        notifyAll();
+    }
+}
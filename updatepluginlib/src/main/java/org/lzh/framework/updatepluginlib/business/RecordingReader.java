@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2017 Haoge
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lzh.framework.updatepluginlib.business;
+
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * 在读取的同时记录所读取内容的流。用于在流式解析时，同时得到完整的响应数据以进行缓存。
+ *
+ * <p>只有在解析成功后调用{@link #complete()}时才会通知记录结果。
+ *
+ * @author haoge
+ */
+final class RecordingReader extends FilterReader {
+
+    /**
+     * 记录完成监听
+     */
+    interface Listener {
+        void onRecorded(String text);
+    }
+
+    private final StringBuilder text = new StringBuilder();
+    private final Listener listener;
+
+    RecordingReader(Reader in, Listener listener) {
+        super(in);
+        this.listener = listener;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int c = super.read();
+        if (c != -1) {
+            text.append((char) c);
+        }
+        return c;
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) throws IOException {
+        int count = super.read(cbuf, off, len);
+        if (count > 0) {
+            text.append(cbuf, off, count);
+        }
+        return count;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        // 跳过的内容同样需要被记录
+        char[] buffer = new char[(int) Math.min(n, 1024)];
+        long skipped = 0;
+        while (skipped < n) {
+            int count = read(buffer, 0, (int) Math.min(buffer.length, n - skipped));
+            if (count == -1) {
+                break;
+            }
+            skipped += count;
+        }
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public void mark(int readAheadLimit) throws IOException {
+        throw new IOException("mark() not supported");
+    }
+
+    @Override
+    public void reset() throws IOException {
+        throw new IOException("reset() not supported");
+    }
+
+    /**
+     * 读取剩余的所有内容并通知记录结果。被包装的流同样为{@link RecordingReader}时将一同通知
+     *
+     * @return 完整的内容
+     * @throws IOException 读取出错
+     */
+    String complete() throws IOException {
+        char[] buffer = new char[1024];
+        while (read(buffer, 0, buffer.length) != -1) {
+            // 读取剩余部分
+        }
+        if (in instanceof RecordingReader) {
+            ((RecordingReader) in).complete();
+        }
+        String result = text.toString();
+        listener.onRecorded(result);
+        return result;
+    }
+}
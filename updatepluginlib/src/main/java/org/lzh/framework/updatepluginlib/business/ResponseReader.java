@@ -0,0 +1,34 @@
+/*
+ * Copyright (C) 2017 Haoge
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lzh.framework.updatepluginlib.business;
+
+import java.io.StringReader;
+
+/**
+ * 持有完整响应数据的流。当流式接口所返回的数据已经是完整的字符串时(如304时使用的缓存数据)，
+ * 使用此类进行包装，以便{@link UpdateWorker}直接取出字符串并复用上次的解析结果。
+ *
+ * @author haoge
+ */
+final class ResponseReader extends StringReader {
+
+    final String response;
+
+    ResponseReader(String response) {
+        super(response);
+        this.response = response;
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2017 Haoge
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lzh.framework.updatepluginlib.business;
+
+import org.lzh.framework.updatepluginlib.UpdateBuilder;
+import org.lzh.framework.updatepluginlib.UpdateConfig;
+
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * 检查更新与下载任务出错时的重试策略。通过{@link UpdateConfig#retryPolicy(RetryPolicy)}或者{@link UpdateBuilder#retryPolicy(RetryPolicy)}进行配置，未配置时不进行重试
+ *
+ * <p>重试间隔按指数退避进行增长：第n次重试的间隔为 initialDelay * multiplier^(n-1)，且不超过maxDelay。
+ * 并在此基础上随机减少最多jitter比例的时长，以避免大量客户端同时重试。
+ *
+ * <p>若服务器通过响应头Retry-After提供了建议等待时长，实际间隔取计算间隔与建议时长中的较大值。
+ * 建议时长超过maxDelay时不在进程内重试，交由{@link CheckScheduler}等调度方按建议时长处理。
+ *
+ * <p>默认只对网络异常(IOException)以及408、429、5xx的{@link HttpException}进行重试。可复写{@link #isRetryable(Throwable)}进行定制。
+ *
+ * <p>下载任务重试时将从已提交的进度处继续下载。
+ *
+ * @author haoge
+ */
+public class RetryPolicy {
+
+    private static final Random RANDOM = new Random();
+
+    private int maxAttempts = 3;
+    private long initialDelay = 1000;
+    private long maxDelay = 30000;
+    private double multiplier = 2;
+    private double jitter = 0.5;
+
+    /**
+     * 设置最多执行的次数(包括首次执行)。设置为1时代表不进行重试
+     * @param maxAttempts 最多执行的次数。默认为3
+     * @return itself
+     */
+    public RetryPolicy setMaxAttempts(int maxAttempts) {
+        this.maxAttempts = Math.max(1, maxAttempts);
+        return this;
+    }
+
+    /**
+     * @param initialDelay 首次重试的间隔，单位毫秒。默认为1000
+     * @return itself
+     */
+    public RetryPolicy setInitialDelay(long initialDelay) {
+        this.initialDelay = Math.max(0, initialDelay);
+        return this;
+    }
+
+    /**
+     * @param maxDelay 重试间隔的最大值，单位毫秒。默认为30000
+     * @return itself
+     */
+    public RetryPolicy setMaxDelay(long maxDelay) {
+        this.maxDelay = Math.max(0, maxDelay);
+        return this;
+    }
+
+    /**
+     * @param multiplier 每次重试时间隔的增长倍数。默认为2
+     * @return itself
+     */
+    public RetryPolicy setMultiplier(double multiplier) {
+        this.multiplier = Math.max(1, multiplier);
+        return this;
+    }
+
+    /**
+     * @param jitter 随机抖动比例，取值范围[0, 1]。默认为0.5，即实际间隔为计算间隔的50%~100%
+     * @return itself
+     */
+    public RetryPolicy setJitter(double jitter) {
+        this.jitter = Math.min(1, Math.max(0, jitter));
+        return this;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    public long getInitialDelay() {
+        return initialDelay;
+    }
+
+    public long getMaxDelay() {
+        return maxDelay;
+    }
+
+    public double getMultiplier() {
+        return multiplier;
+    }
+
+    public double getJitter() {
+        return jitter;
+    }
+
+    /**
+     * 判断是否需要进行重试
+     *
+     * @param attempts 已执行的次数
+     * @param t 此次执行出现的异常
+     * @return True代表需要重试
+     */
+    public boolean shouldRetry(int attempts, Throwable t) {
+        return attempts < maxAttempts && isRetryable(t);
+    }
+
+    /**
+     * 计算重试前需要等待的时长
+     *
+     * @param retry 此次为第几次重试，从1开始
+     * @return 等待时长，单位毫秒
+     */
+    public long getDelay(int retry) {
+        double delay = initialDelay * Math.pow(multiplier, Math.max(0, retry - 1));
+        delay = Math.min(delay, maxDelay);
+        return (long) (delay * (1 - jitter * RANDOM.nextDouble()));
+    }
+
+    /**
+     * 获取服务器通过响应头Retry-After建议的等待时长。将沿异常链进行查找
+     *
+     * @param t 出现的异常
+     * @return 建议的等待时长，单位毫秒。小于0时代表未提供
+     */
+    public static long getRetryAfter(Throwable t) {
+        for (Throwable cause = t; cause != null; cause = cause.getCause()) {
+            if (cause instanceof HttpException) {
+                return ((HttpException) cause).getRetryAfter();
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 判断异常是否可通过重试恢复。将沿异常链进行查找
+     *
+     * @param t 出现的异常
+     * @return True代表可重试
+     */
+    protected boolean isRetryable(Throwable t) {
+        for (Throwable cause = t; cause != null; cause = cause.getCause()) {
+            if (cause instanceof HttpException) {
+                int code = ((HttpException) cause).getCode();
+                return code == 408 || code == 429 || code >= 500;
+            }
+            if (cause instanceof IOException) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2017 Haoge
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lzh.framework.updatepluginlib.business;
+
+import org.lzh.framework.updatepluginlib.util.ResumableDigest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * 用于将下载流中的数据写入到本地文件指定位置的工具类。
+ *
+ * <p>提供两种写入方式：<br>
+ *     1. 普通方式：使用堆内存缓冲区通过{@link RandomAccessFile}进行写入。<br>
+ *     2. NIO方式：使用可复用的直接缓冲区通过{@link FileChannel}进行按位置写入。<br>
+ *
+ * <p>两种方式均会在每次写入前尽量填满缓冲区，以减少写入次数。当提供了摘要实例时，写入的数据将同时用于摘要计算。
+ *
+ * @author haoge
+ */
+final class StreamTransfer {
+
+    // 最多缓存的直接缓冲区个数。直接缓冲区的创建代价较高，在此进行复用
+    private static final int MAX_POOL_SIZE = 4;
+    private static final Queue<ByteBuffer> POOL = new ConcurrentLinkedQueue<>();
+
+    /**
+     * 数据写入监听。每次写入文件后被调用。
+     */
+    interface Listener {
+        /**
+         * @param length 此次写入的长度
+         * @return False代表需要中断此次传输
+         * @throws IOException 处理出错时抛出，将中断此次传输
+         */
+        boolean onTransferred(int length) throws IOException;
+    }
+
+    private StreamTransfer() {}
+
+    /**
+     * 将输入流中的数据写入到文件的指定位置。
+     *
+     * @param input 输入流
+     * @param raf 被写入的文件
+     * @param position 写入的起始位置
+     * @param limit 最多写入的长度，小于0时代表一直读取到流结束
+     * @param bufferSize 缓冲区大小
+     * @param nio 是否使用NIO方式写入
+     * @param digest 用于计算写入数据摘要的实例，可为null
+     * @param listener 写入监听
+     * @return 实际写入的长度
+     * @throws IOException 读写出错
+     */
+    static long transfer(InputStream input, RandomAccessFile raf, long position, long limit,
+                         int bufferSize, boolean nio, ResumableDigest digest, Listener listener) throws IOException {
+        if (nio) {
+            return transferByChannel(input, raf.getChannel(), position, limit, bufferSize, digest, listener);
+        } else {
+            return transferByStream(input, raf, position, limit, bufferSize, digest, listener);
+        }
+    }
+
+    private static long transferByStream(InputStream input, RandomAccessFile raf, long position, long limit,
+                                         int bufferSize, ResumableDigest digest, Listener listener) throws IOException {
+        byte[] buffer = new byte[bufferSize];
+        long total = 0;
+        raf.seek(position);
+        while (limit < 0 || total < limit) {
+            int max = limit < 0 ? buffer.length : (int) Math.min(buffer.length, limit - total);
+            int length = fill(input, buffer, max);
+            if (length <= 0) {
+                break;
+            }
+            raf.write(buffer, 0, length);
+            if (digest != null) {
+                digest.update(buffer, 0, length);
+            }
+            total += length;
+            if (!listener.onTransferred(length)) {
+                break;
+            }
+        }
+        return total;
+    }
+
+    private static long transferByChannel(InputStream input, FileChannel channel, long position, long limit,
+                                          int bufferSize, ResumableDigest digest, Listener listener) throws IOException {
+        ReadableByteChannel source = Channels.newChannel(input);
+        ByteBuffer buffer = obtain(bufferSize);
+        long total = 0;
+        try {
+            while (limit < 0 || total < limit) {
+                buffer.clear();
+                if (limit >= 0 && limit - total < buffer.capacity()) {
+                    buffer.limit((int) (limit - total));
+                }
+                if (fill(source, buffer) <= 0) {
+                    break;
+                }
+                buffer.flip();
+                int length = buffer.remaining();
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer, position + total + (length - buffer.remaining()));
+                }
+                if (digest != null) {
+                    buffer.flip();
+                    digest.update(buffer);
+                }
+                total += length;
+                if (!listener.onTransferred(length)) {
+                    break;
+                }
+            }
+        } finally {
+            recycle(buffer);
+        }
+        return total;
+    }
+
+    private static int fill(InputStream input, byte[] buffer, int max) throws IOException {
+        int count = 0;
+        while (count < max) {
+            int read = input.read(buffer, count, max - count);
+            if (read == -1) {
+                break;
+            }
+            count += read;
+            if (input.available() <= 0) {
+                // 无更多可读取数据时先写入，避免慢速网络下进度长时间停滞
+                break;
+            }
+        }
+        return count;
+    }
+
+    private static int fill(ReadableByteChannel source, ByteBuffer buffer) throws IOException {
+        // 与流的读取一致：读取到数据即先写入，避免慢速网络下进度、限速及进度记录长时间停滞
+        int read;
+        do {
+            read = source.read(buffer);
+        } while (read == 0 && buffer.hasRemaining());
+        return read;
+    }
+
+    private static ByteBuffer obtain(int bufferSize) {
+        ByteBuffer buffer;
+        while ((buffer = POOL.poll()) != null) {
+            if (buffer.capacity() == bufferSize) {
+                return buffer;
+            }
+        }
+        return ByteBuffer.allocateDirect(bufferSize);
+    }
+
+    private static void recycle(ByteBuffer buffer) {
+        if (POOL.size() < MAX_POOL_SIZE) {
+            POOL.offer(buffer);
+        }
+    }
+}
@@ -15,15 +15,150 @@
  */
 package org.lzh.framework.updatepluginlib.business;
 
+import android.util.Log;
+
+import org.lzh.framework.updatepluginlib.util.Utils;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
 public class UnifiedWorker {
 
-    private volatile boolean isRunning;
+    private final AtomicBoolean isRunning = new AtomicBoolean();
+    // 当前任务已进行的重试次数。任务结束时清零
+    private volatile int retryCount;
+    // 当前任务是否已被取消。重新启动任务时清除
+    private volatile boolean cancelled;
+    // 等待执行的重试任务
+    private Runnable pendingRetry;
+    // 任务的优先级
+    private volatile int priority = UpdateExecutor.PRIORITY_FOREGROUND;
+
+    UpdateExecutor executor;
 
     void setRunning(boolean running) {
-        isRunning = running;
+        if (running) {
+            // 重试、让位后重新提交时任务已处于运行状态，保留原有状态
+            acquire();
+            return;
+        }
+        retryCount = 0;
+        isRunning.set(false);
+        UpdateExecutor executor = this.executor;
+        if (executor != null) {
+            executor.unregister(this);
+        }
+    }
+
+    /**
+     * 占用此任务，使其进入运行状态。同一时间只有一个请求能占用成功，占用成功后再对任务进行配置并提交执行，
+     * 避免并发的请求相互覆盖任务的配置及回调
+     *
+     * @return True代表占用成功。任务已在运行时返回false
+     */
+    public final boolean acquire() {
+        if (!isRunning.compareAndSet(false, true)) {
+            return false;
+        }
+        cancelled = false;
+        return true;
     }
 
     public boolean isRunning () {
-        return isRunning;
+        return isRunning.get();
+    }
+
+    /**
+     * 设置任务的优先级。在提交任务前设置
+     *
+     * @param priority 优先级，见{@link UpdateExecutor#PRIORITY_USER}等
+     */
+    public void setPriority(int priority) {
+        this.priority = priority;
+    }
+
+    public int getPriority() {
+        return priority;
+    }
+
+    /**
+     * 取消当前任务。具体的取消方式由各任务实现
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * @return True代表当前任务已被取消
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * 移除等待执行的重试任务
+     *
+     * @return True代表存在等待执行的重试任务并已移除。此时任务仍处于运行状态，需由调用方结束任务
+     */
+    synchronized boolean cancelRetry() {
+        if (pendingRetry == null) {
+            return false;
+        }
+        Utils.getMainHandler().removeCallbacks(pendingRetry);
+        pendingRetry = null;
+        return true;
+    }
+
+    /**
+     * @return True代表当前为重试执行
+     */
+    boolean isRetrying() {
+        return retryCount > 0;
+    }
+
+    /**
+     * 任务因等待队列已满而无法提交时的回调。在此结束任务并通知出错
+     *
+     * @param e 提交任务时的异常
+     */
+    void onRejected(RejectedExecutionException e) {
+        setRunning(false);
+    }
+
+    /**
+     * 根据重试策略判断是否需要重试。需要时将在等待后执行重新提交任务，等待期间任务仍处于运行状态。
+     * 服务器建议的等待时长(Retry-After)超过策略的最大间隔时不进行重试
+     *
+     * @param policy 重试策略
+     * @param t 此次执行出现的异常
+     * @param resubmit 用于重新提交任务
+     * @return True代表已安排重试，此时不应再派发出错通知
+     */
+    synchronized boolean scheduleRetry(RetryPolicy policy, Throwable t, final Runnable resubmit) {
+        if (cancelled || policy == null || executor == null || !policy.shouldRetry(retryCount + 1, t)) {
+            return false;
+        }
+        long retryAfter = RetryPolicy.getRetryAfter(t);
+        if (retryAfter > policy.getMaxDelay()) {
+            Log.w("UnifiedWorker", String.format("Server asked to retry after %sms, exceeds max delay %sms",
+                    retryAfter, policy.getMaxDelay()), t);
+            return false;
+        }
+        retryCount++;
+        long delay = Math.max(policy.getDelay(retryCount), retryAfter);
+        Log.w("UnifiedWorker", String.format("Task failed, retry %s/%s after %sms",
+                retryCount, policy.getMaxAttempts() - 1, delay), t);
+        pendingRetry = new Runnable() {
+            @Override
+            public void run() {
+                synchronized (UnifiedWorker.this) {
+                    if (pendingRetry != this) return;
+                    pendingRetry = null;
+                }
+                resubmit.run();
+            }
+        };
+        Utils.getMainHandler().postDelayed(pendingRetry, delay);
+        return true;
     }
 }
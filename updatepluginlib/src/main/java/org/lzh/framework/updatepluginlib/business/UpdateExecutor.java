@@ -15,40 +15,341 @@
  */
 package org.lzh.framework.updatepluginlib.business;
 
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import org.lzh.framework.updatepluginlib.UpdateBuilder;
+import org.lzh.framework.updatepluginlib.UpdateConfig;
+import org.lzh.framework.updatepluginlib.callback.UpdateCheckCB;
+import org.lzh.framework.updatepluginlib.model.CheckEntity;
+import org.lzh.framework.updatepluginlib.util.ActivityManager;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * <b>核心操作类</b>
  *
- * <p>用于提供一个单线程的线程池使用，用于避免多任务并发的情况。
+ * <p>用于调度检查更新与下载任务。检查与下载分别运行于独立的线程池中，耗时的下载任务不会阻塞检查任务。
+ *
+ * <p>每个{@link UpdateConfig}持有各自的实例，可通过{@link UpdateConfig#executor(UpdateExecutor)}配置各线程池的大小及等待队列长度。
+ * 线程空闲一段时间后将自动回收。等待队列已满时，新提交的任务将直接以{@link RejectedExecutionException}通知出错
+ *
+ * <p>任务按优先级执行：{@link #PRIORITY_USER} &gt; {@link #PRIORITY_FOREGROUND} &gt; {@link #PRIORITY_BACKGROUND}。
+ * 等待中的任务每在队列中等待{@link #AGING_INTERVAL}毫秒视为提升一级，低优先级任务不会因持续提交的高优先级任务而一直无法执行。
+ * 存在更高优先级的下载运行或等待时，低优先级的下载将让出带宽(可通过{@link #setYieldRate(long)}配置)；下载线程已满时，将暂时中止最低优先级的下载并重新排队，之后从已下载的位置继续
+ *
+ * <p>运行中的任务按更新api及下载文件进行登记：相同更新api的检查请求可通过{@link #attach(CheckEntity, UpdateCheckCB)}合并，
+ * 下载到同一文件的任务同一时间只允许一个运行
  *
  * @author haoge
  */
 public class UpdateExecutor{
 
-    private static ExecutorService pool;
+    /**
+     * 后台任务：如定时检查、后台静默下载
+     */
+    public static final int PRIORITY_BACKGROUND = 1;
+    /**
+     * 应用处于前台时自动发起的任务
+     */
+    public static final int PRIORITY_FOREGROUND = 2;
+    /**
+     * 用户主动发起的任务：如用户点击检查更新、确认下载
+     */
+    public static final int PRIORITY_USER = 3;
+
+    /**
+     * 任务等待时长每达到此值，其优先级视为提升一级
+     */
+    public static final long AGING_INTERVAL = 10 * 1000;
+
+    // 让出带宽时低优先级下载的默认限制速度，单位：字节/秒
+    private static final long DEFAULT_YIELD_RATE = 16 * 1024;
+    // 空闲线程的存活时长
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private final Lane checkLane;
+    private final Lane downloadLane;
+    // 运行中的检查任务，按更新api登记
+    private final ConcurrentHashMap<CheckEntity, UpdateWorker> checks = new ConcurrentHashMap<>();
+    // 运行中的下载任务，按下载文件登记
+    private final ConcurrentHashMap<File, DownloadWorker> downloads = new ConcurrentHashMap<>();
+    private volatile long yieldRate = DEFAULT_YIELD_RATE;
+
+    /**
+     * 使用默认配置：检查任务2个线程，下载任务1个线程，等待队列长度均为16
+     */
     public UpdateExecutor () {
-        pool = Executors.newSingleThreadExecutor(new ThreadFactory() {
-            @Override
-            public Thread newThread(Runnable r) {
-                Thread thread = new Thread(r);
-                thread.setName("Update Dispatcher");
-                thread.setDaemon(true);
-                return thread;
-            }
-        });
+        this(2, 1, 16);
+    }
+
+    /**
+     * @param checkThreads 检查任务的线程数
+     * @param downloadThreads 下载任务的线程数
+     * @param maxQueued 各线程池中等待执行的任务数上限
+     */
+    public UpdateExecutor (int checkThreads, int downloadThreads, int maxQueued) {
+        checkLane = new Lane("Update Check Dispatcher", checkThreads, maxQueued);
+        downloadLane = new Lane("Update Download Dispatcher", downloadThreads, maxQueued);
+    }
+
+    /**
+     * 配置存在更高优先级的下载时，低优先级下载让出带宽后的限制速度
+     *
+     * @param yieldRate 限制速度，单位：字节/秒。默认为16KB/s。小于等于0时代表不让出带宽
+     * @return itself
+     */
+    public UpdateExecutor setYieldRate(long yieldRate) {
+        this.yieldRate = Math.max(0, yieldRate);
+        return this;
+    }
+
+    public void check(UpdateWorker worker) {
+        worker.setRunning(true);
+        worker.executor = this;
+        UpdateBuilder builder = worker.getBuilder();
+        if (builder != null) {
+            checks.put(builder.getCheckEntity(), worker);
+        }
+        execute(checkLane, worker, worker);
+    }
+
+    public void check(BatchCheckWorker worker) {
+        execute(checkLane, worker, worker);
     }
 
-    public synchronized void check(UpdateWorker worker) {
+    public void download(DownloadWorker worker) {
         worker.setRunning(true);
-        pool.execute(worker);
+        worker.executor = this;
+        File file = worker.getTargetFile();
+        if (file != null && !claim(file, worker)) {
+            worker.onRejected(new RejectedExecutionException("Already have a download task running for " + file));
+            return;
+        }
+        // 下载线程已满时，中止优先级更低的下载为此任务让位
+        DownloadWorker victim = downloadLane.findPreemptable(worker.getPriority());
+        execute(downloadLane, worker, worker);
+        if (victim != null && victim != worker) {
+            victim.preempt();
+        }
     }
 
-    public synchronized void download(DownloadWorker worker) {
+    private void execute(Lane lane, UnifiedWorker worker, Runnable task) {
         worker.setRunning(true);
-        pool.execute(worker);
+        worker.executor = this;
+        try {
+            lane.execute(new Task(lane, worker, task));
+        } catch (RejectedExecutionException e) {
+            worker.onRejected(e);
+        }
+    }
+
+    /**
+     * 将检查请求合并到正在运行的相同更新api的检查任务中
+     *
+     * @param entity 检查请求的更新api数据实体类
+     * @param checkCB 检查请求的回调
+     * @return 合并到的检查任务，可通过{@link UpdateWorker#detach(UpdateCheckCB)}撤回。合并失败时返回null
+     * @see UpdateWorker#attach(CheckEntity, UpdateCheckCB)
+     */
+    public UpdateWorker attach(CheckEntity entity, UpdateCheckCB checkCB) {
+        UpdateWorker worker = checks.get(entity);
+        return worker != null && worker.attach(entity, checkCB) ? worker : null;
+    }
+
+    /**
+     * 登记下载任务所使用的文件
+     *
+     * @return True代表登记成功。已有其他任务正在下载到此文件时返回false
+     */
+    private boolean claim(File file, DownloadWorker worker) {
+        while (true) {
+            DownloadWorker active = downloads.putIfAbsent(file, worker);
+            if (active == null || active == worker) {
+                return true;
+            }
+            if (active.isRunning()) {
+                return false;
+            }
+            // 任务已结束但尚未注销
+            if (downloads.replace(file, active, worker)) {
+                return true;
+            }
+        }
     }
 
+    /**
+     * 任务结束时注销其登记
+     */
+    void unregister(UnifiedWorker worker) {
+        checks.values().remove(worker);
+        downloads.values().remove(worker);
+    }
+
+    /**
+     * 获取指定优先级的下载当前可使用的速度。存在更高优先级的下载运行或等待执行时，低优先级的下载将被限速以让出带宽。
+     * 不依赖于让位中止：线程未满时高优先级下载与低优先级下载并行执行，同样需要让出带宽。检查任务的流量很小，无需为其让出带宽
+     *
+     * @param priority 下载任务的优先级
+     * @return 限制速度，单位：字节/秒。返回0时代表不限速
+     */
+    long getYieldRate(int priority) {
+        long rate = yieldRate;
+        return rate > 0 && downloadLane.hasPendingAbove(priority) ? rate : 0;
+    }
+
+    /**
+     * @return 等待执行的检查任务数
+     */
+    public int getQueuedChecks() {
+        return checkLane.pool.getQueue().size();
+    }
+
+    /**
+     * @return 等待执行的下载任务数
+     */
+    public int getQueuedDownloads() {
+        return downloadLane.pool.getQueue().size();
+    }
+
+    /**
+     * 未设置优先级时使用的默认优先级：应用处于前台时为{@link #PRIORITY_FOREGROUND}，否则为{@link #PRIORITY_BACKGROUND}
+     *
+     * @see UpdateBuilder#priority(int)
+     */
+    public static int getDefaultPriority() {
+        try {
+            return ActivityManager.get().isForeground()
+                    ? PRIORITY_FOREGROUND : PRIORITY_BACKGROUND;
+        } catch (Throwable t) {
+            return PRIORITY_BACKGROUND;
+        }
+    }
+
+    /**
+     * 单个线程池及其按优先级排序的等待队列
+     */
+    private static class Lane {
+        private final ThreadPoolExecutor pool;
+        private final int threads;
+        private final int maxQueued;
+        private final AtomicLong sequence = new AtomicLong();
+        // 正在执行的任务
+        private final List<Task> running = new ArrayList<>();
+
+        Lane(final String name, int threads, int maxQueued) {
+            this.threads = Math.max(1, threads);
+            this.maxQueued = Math.max(1, maxQueued);
+            pool = new ThreadPoolExecutor(this.threads, this.threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                    new PriorityBlockingQueue<Runnable>(), new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r);
+                    thread.setName(name + "-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            pool.allowCoreThreadTimeOut(true);
+        }
+
+        synchronized void execute(Task task) {
+            if (pool.getQueue().size() >= maxQueued) {
+                throw new RejectedExecutionException("Too many update tasks queued: " + maxQueued);
+            }
+            task.sequence = sequence.incrementAndGet();
+            pool.execute(task);
+        }
+
+        synchronized void onStart(Task task) {
+            running.add(task);
+        }
+
+        synchronized void onFinish(Task task) {
+            running.remove(task);
+        }
+
+        /**
+         * @return True代表存在优先级高于指定优先级的、正在执行或等待执行的任务
+         */
+        synchronized boolean hasPendingAbove(int priority) {
+            for (Task task : running) {
+                if (task.worker.getPriority() > priority) {
+                    return true;
+                }
+            }
+            for (Runnable queued : pool.getQueue()) {
+                if (((Task) queued).worker.getPriority() > priority) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * 线程已满时，查找正在执行的、优先级低于指定优先级的下载中优先级最低的一个
+         */
+        synchronized DownloadWorker findPreemptable(int priority) {
+            if (running.size() < threads) {
+                return null;
+            }
+            DownloadWorker victim = null;
+            for (Task task : running) {
+                if (task.worker instanceof DownloadWorker && task.worker.getPriority() < priority
+                        && (victim == null || task.worker.getPriority() < victim.getPriority())) {
+                    victim = (DownloadWorker) task.worker;
+                }
+            }
+            return victim;
+        }
+    }
+
+    /**
+     * 等待队列中的任务。按(入队时间 - 优先级 * AGING_INTERVAL)排序，值越小越先执行：
+     * 在队列中等待越久的任务，越可能排在后入队的高优先级任务之前。
+     *
+     * <p>仅以在队列中等待的时长计算：重试、让位后重新入队的任务以重新入队的时间计算。
+     * 被中止让位的下载总是在中止它的高优先级任务入队之后重新入队，因此不会抢回让出的线程
+     */
+    private static class Task implements Runnable, Comparable<Task> {
+        private final Lane lane;
+        private final UnifiedWorker worker;
+        private final Runnable runnable;
+        private final long key;
+        private long sequence;
+
+        Task(Lane lane, UnifiedWorker worker, Runnable runnable) {
+            this.lane = lane;
+            this.worker = worker;
+            this.runnable = runnable;
+            this.key = System.currentTimeMillis() - worker.getPriority() * AGING_INTERVAL;
+        }
+
+        @Override
+        public void run() {
+            lane.onStart(this);
+            try {
+                runnable.run();
+            } finally {
+                lane.onFinish(this);
+            }
+        }
+
+        @Override
+        public int compareTo(Task other) {
+            if (key != other.key) {
+                return key < other.key ? -1 : 1;
+            }
+            return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+        }
+    }
 }
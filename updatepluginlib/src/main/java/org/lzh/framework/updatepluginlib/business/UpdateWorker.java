@@ -17,18 +17,40 @@ package org.lzh.framework.updatepluginlib.business;
 
 import org.lzh.framework.updatepluginlib.UpdateBuilder;
 import org.lzh.framework.updatepluginlib.callback.DefaultCheckCB;
+import org.lzh.framework.updatepluginlib.callback.UpdateCancelCB;
+import org.lzh.framework.updatepluginlib.callback.UpdateCheckCB;
+import org.lzh.framework.updatepluginlib.callback.UpdateTrafficCB;
 import org.lzh.framework.updatepluginlib.model.CheckEntity;
+import org.lzh.framework.updatepluginlib.model.StreamUpdateParser;
 import org.lzh.framework.updatepluginlib.model.Update;
 import org.lzh.framework.updatepluginlib.model.UpdateParser;
 import org.lzh.framework.updatepluginlib.strategy.ForcedUpdateStrategy;
 import org.lzh.framework.updatepluginlib.util.Recyclable;
 import org.lzh.framework.updatepluginlib.util.Utils;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.RejectedExecutionException;
+
 /**
  * <b>核心操作类</b>
  *
  * 此为检查更新api网络任务封装基类。用于对更新api进行请求返回数据后。触发
  *
+ * <p>当配置的解析器为{@link StreamUpdateParser}时，同步请求将通过{@link #checkStream(CheckEntity)}获取响应流，
+ * 异步请求可通过{@link #onResponse(Reader)}或{@link #onResponse(InputStream)}传入响应流，边接收边解析。
+ *
+ * <p>任务运行期间，相同{@link CheckEntity}的检查请求将通过{@link UpdateExecutor#attach(CheckEntity, UpdateCheckCB)}合并到当前任务中，
+ * 共享同一次网络请求及解析结果。
+ *
+ * <p>任务需先通过{@link #acquire()}占用后再进行配置及提交，同一实例同一时间只执行一次检查。
+ *
  * @author haoge
  */
 public abstract class UpdateWorker extends UnifiedWorker implements Runnable,Recyclable {
@@ -36,23 +58,92 @@ public abstract class UpdateWorker extends UnifiedWorker implements Runnable,Rec
     /**
      * {@link DefaultCheckCB}的实例，用于接收网络任务状态。并连接后续流程
      */
-    private DefaultCheckCB checkCB;
+    private volatile DefaultCheckCB checkCB;
 
     private UpdateBuilder builder;
 
+    // 上次解析所使用的数据及结果。当返回数据未发生变化时(如服务器返回304)，直接复用上次的解析结果
+    private UpdateParser lastParser;
+    private String lastResponse;
+    private Update lastUpdate;
+    // 当前处理的数据是否来自于缓存
+    private volatile boolean fromCache;
+    // 最近一次检查得到的更新数据。供CheckScheduler读取服务器建议的检查间隔
+    volatile Update lastResult;
+    // 合并到当前任务中的检查回调。任务结束时一并通知
+    private final List<UpdateCheckCB> attached = new ArrayList<>();
+
     public final void setBuilder (UpdateBuilder builder) {
         this.builder = builder;
     }
 
-    public final void setCheckCB (DefaultCheckCB checkCB) {
+    public final synchronized void setCheckCB (DefaultCheckCB checkCB) {
         this.checkCB = checkCB;
     }
 
+    /**
+     * @return 当前任务所属的更新任务实例
+     */
+    public final UpdateBuilder getBuilder() {
+        return builder;
+    }
+
+    /**
+     * 将检查请求合并到正在运行的任务中。合并成功后，当前任务的检查结果将同时通知到传入的回调
+     *
+     * <p>更新弹窗、下载等后续流程仅由发起当前任务的请求进行处理，合并的请求只接收
+     * {@link UpdateCheckCB#hasUpdate(Update)}、{@link UpdateCheckCB#noUpdate()}及{@link UpdateCheckCB#onCheckError(Throwable)}通知
+     *
+     * @param entity 检查请求的更新api数据实体类
+     * @param checkCB 检查请求的回调
+     * @return True代表合并成功。当前无任务运行或者请求的api不一致时返回false
+     */
+    public final synchronized boolean attach(CheckEntity entity, UpdateCheckCB checkCB) {
+        if (!isRunning() || builder == null || !builder.getCheckEntity().equals(entity)) {
+            return false;
+        }
+        if (checkCB != null) {
+            attached.add(checkCB);
+        }
+        return true;
+    }
+
+    /**
+     * 将通过{@link #attach(CheckEntity, UpdateCheckCB)}合并的回调移除，此回调将不再收到当前任务的任何通知
+     *
+     * @param checkCB 合并时传入的回调
+     * @return True代表移除成功。任务已结束或者回调未被合并时返回false
+     */
+    public final synchronized boolean detach(UpdateCheckCB checkCB) {
+        return checkCB != null && attached.remove(checkCB);
+    }
+
+    /**
+     * 结束当前任务，并取出此任务的回调。与{@link #attach(CheckEntity, UpdateCheckCB)}互斥，保证合并的请求不会丢失通知。
+     * 任务结束后即可被新的请求占用，因此需在结束前取出回调及取消状态
+     */
+    private synchronized Finished finish() {
+        Finished finished = new Finished(checkCB, isCancelled(), new ArrayList<>(attached));
+        attached.clear();
+        setRunning(false);
+        return finished;
+    }
+
     @Override
     public final void run() {
         try {
-            if (useAsync()) {
+            if (isCancelled()) {
+                throw new CancellationException("Check task was cancelled");
+            }
+            CheckCache cache = builder.getCheckCache();
+            String cached = cache == null ? null : cache.get(builder.getCheckEntity());
+            fromCache = cached != null;
+            if (cached != null) {
+                onResponse(cached);
+            } else if (useAsync()) {
                 asyncCheck(builder.getCheckEntity());
+            } else if (builder.getJsonParser() instanceof StreamUpdateParser) {
+                onResponse(checkStream(builder.getCheckEntity()));
             } else {
                 onResponse(check(builder.getCheckEntity()));
             }
@@ -75,12 +166,26 @@ public abstract class UpdateWorker extends UnifiedWorker implements Runnable,Rec
         throw new RuntimeException("You must implements this method for sync request");
     }
 
+    /**
+     * 同步请求更新api，并以流的形式返回接口数据。当配置的解析器为{@link StreamUpdateParser}时，将使用此方法替代{@link #check(CheckEntity)}
+     *
+     * <p>默认实现为将{@link #check(CheckEntity)}返回的数据包装为流。若网络库支持获取响应流，复写此方法即可边接收边解析。返回的流将在解析完成后被关闭
+     *
+     * @param entity 更新api数据实体类
+     * @return 更新api接口返回的数据流
+     * @throws Exception 当访问失败。请抛出一个异常。底层即可捕获此异常用于通知用户。
+     */
+    protected Reader checkStream(CheckEntity entity) throws Exception {
+        return new ResponseReader(check(entity));
+    }
+
     /**
      * 异步请求更新api。当{@link #useAsync()}返回true时被触发
      *
      * <p>当请求失败：需要手动调用{@link #onError(Throwable)}并传入失败异常
      *
-     * <p>当请求成功：需要手动调用{@link #onResponse(String)}并传入接口返回原始数据。便于后续解析
+     * <p>当请求成功：需要手动调用{@link #onResponse(String)}并传入接口返回原始数据。便于后续解析。
+     * 也可调用{@link #onResponse(Reader)}或{@link #onResponse(InputStream)}直接传入响应流
      *
      * @param entity 更新api数据实体类
      */
@@ -106,72 +211,274 @@ public abstract class UpdateWorker extends UnifiedWorker implements Runnable,Rec
     /**
      * 获取到更新接口api数据时的回调。在此进行后续的解析、检查是否需要更新等操作
      *
+     * <p>当配置了{@link CheckCache}时，解析成功的数据将被缓存。有效期内的检查将直接使用缓存数据回调此方法，不再进行网络请求
+     *
      * @param response 更新接口api返回的数据实体
      */
     public final void onResponse(String response) {
         try {
-            UpdateParser jsonParser = builder.getJsonParser();
-            Update update = jsonParser.parse(response);
-            if (update == null) {
-                throw new IllegalArgumentException("parse response to update failed by " + jsonParser.getClass().getCanonicalName());
+            Update update = parse(builder.getJsonParser(), response);
+            CheckCache cache = builder.getCheckCache();
+            if (cache != null && !fromCache) {
+                cache.put(builder.getCheckEntity(), response);
             }
-            update = preHandle(update);
-            if (builder.getUpdateChecker().check(update)) {
-                sendHasUpdate(update);
-            } else {
-                sendNoUpdate();
+            dispatch(update);
+        } catch (Throwable t) {
+            onResponseError(t);
+        }
+    }
+
+    /**
+     * 以UTF-8编码获取到更新接口api数据流时的回调。见{@link #onResponse(Reader)}
+     *
+     * @param input 更新接口api返回的数据流
+     */
+    public final void onResponse(InputStream input) {
+        onResponse(new InputStreamReader(input, Charset.forName("UTF-8")));
+    }
+
+    /**
+     * 获取到更新接口api数据流时的回调。流将在处理完成后被关闭
+     *
+     * <p>当配置的解析器为{@link StreamUpdateParser}时，将直接对数据流进行解析，否则读取为字符串后交由{@link #onResponse(String)}处理。
+     * 配置了{@link CheckCache}时，解析的同时将记录数据内容用于缓存
+     *
+     * @param reader 更新接口api返回的数据流
+     */
+    public final void onResponse(Reader reader) {
+        if (reader instanceof ResponseReader) {
+            // 完整数据：可复用上次的解析结果
+            onResponse(((ResponseReader) reader).response);
+            return;
+        }
+        UpdateParser parser = builder.getJsonParser();
+        try {
+            if (!(parser instanceof StreamUpdateParser)) {
+                String response;
+                try {
+                    response = read(reader);
+                } finally {
+                    closeQuietly(reader);
+                }
+                onResponse(response);
+                return;
+            }
+
+            final CheckCache cache = builder.getCheckCache();
+            final CheckEntity entity = builder.getCheckEntity();
+            Reader source = reader;
+            if (cache != null && !fromCache) {
+                source = new RecordingReader(reader, new RecordingReader.Listener() {
+                    @Override
+                    public void onRecorded(String text) {
+                        cache.put(entity, text);
+                    }
+                });
+            }
+            Update update;
+            try {
+                update = ((StreamUpdateParser) parser).parse(source);
+                if (update == null) {
+                    throw new IllegalArgumentException("parse response to update failed by " + parser.getClass().getCanonicalName());
+                }
+                if (source instanceof RecordingReader) {
+                    ((RecordingReader) source).complete();
+                }
+            } finally {
+                closeQuietly(reader);
             }
+            dispatch(update);
         } catch (Throwable t) {
-            onError(t);
-        } finally {
-            setRunning(false);
+            onResponseError(t);
+        }
+    }
+
+    private void dispatch(Update update) throws Exception {
+        update = preHandle(update, builder);
+        lastResult = update;
+        if (builder.getUpdateChecker().check(update)) {
+            sendHasUpdate(update, finish());
+        } else {
+            sendNoUpdate(finish());
+        }
+    }
+
+    private void onResponseError(Throwable t) {
+        CheckCache cache = builder.getCheckCache();
+        if (cache != null && fromCache) {
+            // 缓存数据无法被正常处理时移除，下次重新请求
+            cache.remove(builder.getCheckEntity());
+            fromCache = false;
         }
+        onError(t);
     }
 
     /**
-     * 进行检查更新api失败时的回调。
+     * 读取流中的全部内容
+     */
+    static String read(Reader reader) throws IOException {
+        StringBuilder builder = new StringBuilder();
+        char[] buffer = new char[1024];
+        int count;
+        while ((count = reader.read(buffer)) != -1) {
+            builder.append(buffer, 0, count);
+        }
+        return builder.toString();
+    }
+
+    private static void closeQuietly(Reader reader) {
+        try {
+            reader.close();
+        } catch (IOException ignore) {
+            // ignore
+        }
+    }
+
+    private synchronized Update parse(UpdateParser jsonParser, String response) throws Exception {
+        if (lastUpdate != null && jsonParser == lastParser && response != null && response.equals(lastResponse)) {
+            return lastUpdate;
+        }
+        Update update = jsonParser.parse(response);
+        if (update == null) {
+            throw new IllegalArgumentException("parse response to update failed by " + jsonParser.getClass().getCanonicalName());
+        }
+        lastParser = jsonParser;
+        lastResponse = response;
+        lastUpdate = update;
+        return update;
+    }
+
+    /**
+     * 进行检查更新api失败时的回调。当符合重试策略({@link UpdateBuilder#getRetryPolicy()})时，将在等待后自动重新检查
      * @param t 失败时的异常
      */
     protected final void onError(Throwable t) {
-        try {
-            sendOnErrorMsg(t);
-        } finally {
-            setRunning(false);
+        if (checkCB != null && scheduleRetry(builder.getRetryPolicy(), t, new Runnable() {
+            @Override
+            public void run() {
+                executor.check(UpdateWorker.this);
+            }
+        })) {
+            return;
+        }
+        sendOnErrorMsg(t, finish());
+    }
+
+    /**
+     * 取消当前的检查任务。发起任务的请求将收到{@link UpdateCancelCB#onCheckCancel()}通知，不再进行后续流程。
+     * 合并到此任务中的请求不受影响
+     */
+    @Override
+    public final void cancel() {
+        super.cancel();
+        if (cancelRetry()) {
+            sendOnErrorMsg(new CancellationException("Check task was cancelled"), finish());
         }
     }
 
-    private void sendHasUpdate(final Update update) {
-        if (checkCB == null) return;
+    @Override
+    void onRejected(RejectedExecutionException e) {
+        sendOnErrorMsg(e, finish());
+    }
+
+    private void sendHasUpdate(final Update update, final Finished finished) {
         Utils.getMainHandler().post(new Runnable() {
             @Override
             public void run() {
-                if (checkCB == null) return;
-                checkCB.hasUpdate(update);
-                release();
+                for (UpdateCheckCB callback : finished.attached) {
+                    try {
+                        callback.hasUpdate(update);
+                    } catch (Throwable t) {
+                        t.printStackTrace();
+                    }
+                }
+                if (finished.checkCB == null) return;
+                if (finished.cancelled) {
+                    finished.checkCB.onCheckCancel();
+                } else {
+                    finished.checkCB.hasUpdate(update);
+                }
+                release(finished.checkCB);
             }
         });
     }
 
-    private void sendNoUpdate() {
-        if (checkCB == null) return;
+    private void sendNoUpdate(final Finished finished) {
         Utils.getMainHandler().post(new Runnable() {
             @Override
             public void run() {
-                if (checkCB == null) return;
-                checkCB.noUpdate();
-                release();
+                for (UpdateCheckCB callback : finished.attached) {
+                    try {
+                        callback.noUpdate();
+                    } catch (Throwable t) {
+                        t.printStackTrace();
+                    }
+                }
+                if (finished.checkCB == null) return;
+                if (finished.cancelled) {
+                    finished.checkCB.onCheckCancel();
+                } else {
+                    finished.checkCB.noUpdate();
+                }
+                release(finished.checkCB);
             }
         });
     }
 
-    private void sendOnErrorMsg(final Throwable t) {
-        if (checkCB == null) return;
+    private void sendOnErrorMsg(final Throwable t, final Finished finished) {
         Utils.getMainHandler().post(new Runnable() {
             @Override
             public void run() {
-                if (checkCB == null) return;
-                checkCB.onCheckError(t);
-                release();
+                for (UpdateCheckCB callback : finished.attached) {
+                    try {
+                        callback.onCheckError(t);
+                    } catch (Throwable e) {
+                        e.printStackTrace();
+                    }
+                }
+                if (finished.checkCB == null) return;
+                if (finished.cancelled) {
+                    finished.checkCB.onCheckCancel();
+                } else {
+                    finished.checkCB.onCheckError(t);
+                }
+                release(finished.checkCB);
+            }
+        });
+    }
+
+    /**
+     * 释放已结束任务的回调。任务已被新的请求占用并设置了新的回调时，保留新的回调
+     */
+    private synchronized void release(DefaultCheckCB callback) {
+        if (checkCB == callback) {
+            release();
+        }
+    }
+
+    /**
+     * @return 当前任务所使用的网络连接管理。定制网络任务时也可使用此处的连接配置
+     */
+    protected final HttpTransport getHttpTransport() {
+        return builder.getHttpTransport();
+    }
+
+    /**
+     * 通知检查更新api的流量统计。当配置的检查回调实现了{@link UpdateTrafficCB}时有效
+     *
+     * @param contentEncoding 响应数据的压缩格式。未压缩时为null
+     * @param transferredBytes 实际传输的数据长度
+     * @param decodedBytes 解压后的数据长度
+     */
+    final void sendCheckTraffic(final String contentEncoding, final long transferredBytes, final long decodedBytes) {
+        UpdateBuilder builder = this.builder;
+        if (builder == null || !(builder.getCheckCB() instanceof UpdateTrafficCB)) return;
+
+        final UpdateTrafficCB trafficCB = (UpdateTrafficCB) builder.getCheckCB();
+        Utils.getMainHandler().post(new Runnable() {
+            @Override
+            public void run() {
+                trafficCB.onCheckTraffic(contentEncoding, transferredBytes, decodedBytes);
             }
         });
     }
@@ -181,7 +488,7 @@ public abstract class UpdateWorker extends UnifiedWorker implements Runnable,Rec
         this.checkCB = null;
     }
 
-    private Update preHandle(Update update) {
+    static Update preHandle(Update update, UpdateBuilder builder) {
         if (update == null) {
             return null;
         }
@@ -193,4 +500,19 @@ public abstract class UpdateWorker extends UnifiedWorker implements Runnable,Rec
         }
         return update;
     }
+
+    /**
+     * 已结束任务的回调及取消状态
+     */
+    private static final class Finished {
+        final DefaultCheckCB checkCB;
+        final boolean cancelled;
+        final List<UpdateCheckCB> attached;
+
+        Finished(DefaultCheckCB checkCB, boolean cancelled, List<UpdateCheckCB> attached) {
+            this.checkCB = checkCB;
+            this.cancelled = cancelled;
+            this.attached = attached;
+        }
+    }
 }
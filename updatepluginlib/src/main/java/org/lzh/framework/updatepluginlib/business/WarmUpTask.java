@@ -0,0 +1,342 @@
+/*
+ * Copyright (C) 2017 Haoge
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lzh.framework.updatepluginlib.business;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.Build;
+import android.util.Log;
+
+import org.lzh.framework.updatepluginlib.UpdateBuilder;
+import org.lzh.framework.updatepluginlib.UpdateConfig;
+import org.lzh.framework.updatepluginlib.model.Update;
+import org.lzh.framework.updatepluginlib.util.ActivityManager;
+import org.lzh.framework.updatepluginlib.util.ResumableDigest;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 下载预热任务。在检查到新版本并展示更新弹窗后启动，利用用户确认前的空闲时间提前进行网络准备：
+ *
+ * <ol>
+ *     <li>预连接：提前完成DNS解析及TCP、TLS握手，并将连接归还到{@link HttpTransport}的连接池中供下载时复用。
+ *     通过{@link UpdateConfig#preConnect(boolean)}开启</li>
+ *     <li>预下载：在非计费网络下，提前下载apk的前N个字节到下载文件中并记录到{@link DownloadJournal}，
+ *     用户确认更新后下载任务将直接从已下载的位置续传。通过{@link UpdateConfig#prefetchSize(long)}开启</li>
+ * </ol>
+ *
+ * <p>预热任务按更新任务实例及下载文件区分，不同更新任务实例的预热互不影响。下载任务开始时将停止下载到同一文件的预热任务，
+ * 已下载的部分会被保留。更新数据中存在增量数据时不进行预下载。
+ *
+ * @author haoge
+ */
+public final class WarmUpTask implements Runnable {
+
+    // 正在进行的预热任务
+    private static final List<WarmUpTask> running = new ArrayList<>();
+
+    private final Update update;
+    private final UpdateBuilder builder;
+    // 预热的下载文件。无法获取时为null
+    private final File target;
+    private final Thread thread;
+    private volatile HttpURLConnection conn;
+    private volatile boolean canceled;
+
+    private WarmUpTask(Update update, UpdateBuilder builder) {
+        this.update = update;
+        this.builder = builder;
+        this.target = DownloadWorker.getTargetFile(update, builder);
+        this.thread = new Thread(this, "Update WarmUp");
+        this.thread.setDaemon(true);
+    }
+
+    /**
+     * 启动预热任务。未开启预连接及预下载时忽略
+     *
+     * @param update 更新数据实体类
+     * @param builder 更新任务实例
+     */
+    public static void start(Update update, UpdateBuilder builder) {
+        if (!builder.isPreConnect() && builder.getPrefetchSize() <= 0) {
+            return;
+        }
+        WarmUpTask task = new WarmUpTask(update, builder);
+        List<WarmUpTask> replaced = new ArrayList<>();
+        synchronized (running) {
+            // 同一更新任务实例或者同一下载文件的预热任务将被替换
+            for (WarmUpTask old : running) {
+                if (old.builder == builder || (task.target != null && task.target.equals(old.target))) {
+                    replaced.add(old);
+                }
+            }
+            running.removeAll(replaced);
+            running.add(task);
+        }
+        for (WarmUpTask old : replaced) {
+            old.abort();
+        }
+        task.thread.start();
+    }
+
+    /**
+     * 取消指定更新任务实例正在进行的预热任务。如用户取消或者忽略此次更新时
+     *
+     * @param builder 更新任务实例
+     */
+    public static void cancel(UpdateBuilder builder) {
+        if (builder == null) {
+            return;
+        }
+        for (WarmUpTask task : detach(builder, null)) {
+            task.abort();
+        }
+    }
+
+    /**
+     * 停止下载到指定文件的预热任务，并等待其保存已下载的进度。在下载任务开始前调用
+     *
+     * @param target 下载文件
+     */
+    static void stop(File target) {
+        if (target == null) {
+            return;
+        }
+        for (WarmUpTask task : detach(null, target)) {
+            task.abort();
+            try {
+                task.thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * 移除属于指定更新任务实例或者下载到指定文件的预热任务
+     */
+    private static List<WarmUpTask> detach(UpdateBuilder builder, File target) {
+        List<WarmUpTask> tasks = new ArrayList<>();
+        synchronized (running) {
+            for (WarmUpTask task : running) {
+                if ((builder != null && task.builder == builder) || (target != null && target.equals(task.target))) {
+                    tasks.add(task);
+                }
+            }
+            running.removeAll(tasks);
+        }
+        return tasks;
+    }
+
+    private void abort() {
+        canceled = true;
+        HttpURLConnection conn = this.conn;
+        if (conn != null) {
+            conn.disconnect();
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            URL url = new URL(update.getUpdateUrl());
+            if (!isPrefetchAllowed() || !prefetch(url)) {
+                preConnect(url);
+            }
+        } catch (Throwable t) {
+            if (!canceled) {
+                Log.w("WarmUpTask", "Warm up for download failed", t);
+            }
+        } finally {
+            synchronized (running) {
+                running.remove(this);
+            }
+        }
+    }
+
+    /**
+     * 预连接：使用只请求首字节的轻量请求建立连接，完成后归还到连接池中
+     */
+    private void preConnect(URL url) throws IOException {
+        if (!builder.isPreConnect() || canceled) {
+            return;
+        }
+        HttpTransport transport = builder.getHttpTransport();
+        HttpURLConnection conn = transport.open(url);
+        this.conn = conn;
+        boolean completed = false;
+        try {
+            conn.setRequestMethod("GET");
+            conn.setRequestProperty("Range", "bytes=0-0");
+            conn.getResponseCode();
+            completed = !canceled;
+        } finally {
+            if (completed) {
+                transport.release(conn);
+            } else {
+                transport.disconnect(conn);
+            }
+            this.conn = null;
+        }
+    }
+
+    /**
+     * 只有非计费网络且更新数据中不存在增量数据时才进行预下载
+     */
+    private boolean isPrefetchAllowed() {
+        if (builder.getPrefetchSize() <= 0
+                || update.getDeltaManifest() != null
+                || !update.getPatches().isEmpty()) {
+            return false;
+        }
+        Context context = ActivityManager.get().getApplicationContext();
+        ConnectivityManager connManager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        if (connManager == null) {
+            return false;
+        }
+        if (Build.VERSION.SDK_INT >= 16) {
+            return !connManager.isActiveNetworkMetered();
+        }
+        // api 16以下：仅在wifi下视为非计费网络
+        NetworkInfo info = connManager.getActiveNetworkInfo();
+        return info != null && info.getType() == ConnectivityManager.TYPE_WIFI;
+    }
+
+    /**
+     * 预下载apk的前N个字节
+     *
+     * @return True代表已进行预下载，连接已被预热
+     */
+    private boolean prefetch(URL url) throws IOException {
+        File target = builder.getFileCreator().create(update);
+        if (target == null || canceled) {
+            return false;
+        }
+        if (target.exists() && builder.getFileChecker().checkForDownload(update, target.getAbsolutePath())) {
+            // 已下载完成
+            return false;
+        }
+        target.getParentFile().mkdirs();
+
+        long size = builder.getPrefetchSize();
+        DownloadJournal journal = DownloadJournal.open(target);
+        try {
+            long offset = getResumeOffset(target, journal);
+            if (offset >= size || journal.isCompleted()) {
+                return false;
+            }
+            return transfer(url, target, journal, offset, size);
+        } finally {
+            journal.close();
+        }
+    }
+
+    /**
+     * 与下载任务一致：只有单连接下载记录且存在可用于If-Range的校验信息时才可续传
+     */
+    private long getResumeOffset(File target, DownloadJournal journal) {
+        if (journal.getSegmentCount() != 1
+                || journal.getTotalLength() <= 0
+                || journal.getIfRange() == null
+                || journal.isCompleted()) {
+            return 0;
+        }
+        long committed = journal.getCommitted(0);
+        return committed <= target.length() ? committed : 0;
+    }
+
+    private boolean transfer(URL url, File target, DownloadJournal journal, long offset, long size) throws IOException {
+        HttpTransport transport = builder.getHttpTransport();
+        HttpURLConnection conn = transport.open(url);
+        this.conn = conn;
+        boolean completed = false;
+        RandomAccessFile raf = null;
+        try {
+            conn.setRequestMethod("GET");
+            conn.setRequestProperty("Range", "bytes=" + offset + "-" + (size - 1));
+            if (offset > 0) {
+                conn.setRequestProperty("If-Range", journal.getIfRange());
+            }
+            if (canceled || conn.getResponseCode() != HttpURLConnection.HTTP_PARTIAL) {
+                // 服务器不支持分段请求或者文件已变更：交由下载任务处理
+                return false;
+            }
+            long[] range = DefaultDownloadWorker.parseContentRange(conn.getHeaderField("Content-Range"));
+            if (range[0] != offset || range[1] <= 0 || (offset > 0 && range[1] != journal.getTotalLength())) {
+                return false;
+            }
+            String eTag = conn.getHeaderField("ETag");
+            String lastModified = conn.getHeaderField("Last-Modified");
+            if (offset == 0) {
+                if (eTag == null && lastModified == null) {
+                    // 无校验信息时下载任务无法续传，预下载没有意义
+                    return false;
+                }
+                journal.reset(range[1]);
+                journal.setValidators(eTag, lastModified);
+            }
+
+            ResumableDigest digest = prepareDigest(journal, offset);
+            journal.setDigest(digest);
+            raf = new RandomAccessFile(target, "rw");
+            raf.setLength(offset);
+            final DownloadJournal committer = journal;
+            long remaining = Math.min(size, range[1]) - offset;
+            remaining -= StreamTransfer.transfer(conn.getInputStream(), raf, offset, remaining,
+                    builder.getDownloadBufferSize(), builder.isNioDownload(), digest, new StreamTransfer.Listener() {
+                @Override
+                public boolean onTransferred(int length) throws IOException {
+                    committer.commit(0, length);
+                    return !canceled;
+                }
+            });
+            journal.flush();
+            completed = remaining == 0 && !canceled;
+            return completed;
+        } finally {
+            if (raf != null) {
+                raf.close();
+            }
+            if (completed) {
+                transport.release(conn);
+            } else {
+                transport.disconnect(conn);
+            }
+            this.conn = null;
+        }
+    }
+
+    private ResumableDigest prepareDigest(DownloadJournal journal, long offset) {
+        String algorithm = ResumableDigest.getAlgorithm(update);
+        if (algorithm == null) {
+            return null;
+        }
+        if (offset == 0) {
+            return ResumableDigest.create(algorithm);
+        }
+        ResumableDigest digest = journal.restoreDigest(algorithm);
+        // 无法恢复计算状态时由下载任务补充计算
+        return digest != null && digest.getLength() == offset ? digest : null;
+    }
+}
@@ -21,6 +21,7 @@ import android.app.Dialog;
 import org.lzh.framework.updatepluginlib.UpdateBuilder;
 import org.lzh.framework.updatepluginlib.Updater;
 import org.lzh.framework.updatepluginlib.business.UpdateWorker;
+import org.lzh.framework.updatepluginlib.business.WarmUpTask;
 import org.lzh.framework.updatepluginlib.creator.DialogCreator;
 import org.lzh.framework.updatepluginlib.model.Update;
 import org.lzh.framework.updatepluginlib.util.ActivityManager;
@@ -66,6 +67,9 @@ public final class DefaultCheckCB implements UpdateCheckCB,Recyclable {
                 return;
             }
 
+            // 等待用户确认期间提前进行下载的网络准备
+            WarmUpTask.start(update, builder);
+
             Activity current = ActivityManager.get().topActivity();
 
             DialogCreator creator = builder.getUpdateDialogCreator();
@@ -106,6 +110,21 @@ public final class DefaultCheckCB implements UpdateCheckCB,Recyclable {
         }
     }
 
+    /**
+     * 检查任务被取消。通知到同时实现了{@link UpdateCancelCB}的检查回调
+     */
+    public void onCheckCancel() {
+        try {
+            if (checkCB instanceof UpdateCancelCB) {
+                ((UpdateCancelCB) checkCB).onCheckCancel();
+            }
+        } catch (Throwable t) {
+            t.printStackTrace();
+        } finally {
+            release();
+        }
+    }
+
     @Override
     public void onUserCancel() {
         try {
@@ -27,6 +27,7 @@ import org.lzh.framework.updatepluginlib.util.Recyclable;
 import org.lzh.framework.updatepluginlib.util.SafeDialogOper;
 
 import java.io.File;
+import java.util.concurrent.CancellationException;
 
 /**
  * 默认的下载任务的回调监听。主要用于接收从{@link DownloadWorker}中传递过来的下载状态。通知用户并触发后续流程
@@ -145,6 +146,59 @@ public final class DefaultDownloadCB implements UpdateDownloadCB ,Recyclable {
         }
     }
 
+    /**
+     * 下载任务已暂停。通知到同时实现了{@link UpdatePauseCB}的回调，下载进度通知将保持显示
+     */
+    public void onDownloadPause() {
+        try {
+            if (downloadCB instanceof UpdatePauseCB) {
+                ((UpdatePauseCB) downloadCB).onDownloadPause();
+            }
+            if (innerCB instanceof UpdatePauseCB) {
+                ((UpdatePauseCB) innerCB).onDownloadPause();
+            }
+        } catch (Throwable t) {
+            t.printStackTrace();
+        }
+    }
+
+    /**
+     * 下载任务已恢复。通知到同时实现了{@link UpdatePauseCB}的回调
+     */
+    public void onDownloadResume() {
+        try {
+            if (downloadCB instanceof UpdatePauseCB) {
+                ((UpdatePauseCB) downloadCB).onDownloadResume();
+            }
+            if (innerCB instanceof UpdatePauseCB) {
+                ((UpdatePauseCB) innerCB).onDownloadResume();
+            }
+        } catch (Throwable t) {
+            t.printStackTrace();
+        }
+    }
+
+    /**
+     * 下载任务被取消。通知到同时实现了{@link UpdateCancelCB}的下载回调，并关闭下载进度通知
+     */
+    public void onDownloadCancel() {
+        try {
+            if (downloadCB instanceof UpdateCancelCB) {
+                ((UpdateCancelCB) downloadCB).onDownloadCancel();
+            }
+            if (innerCB instanceof UpdateCancelCB) {
+                ((UpdateCancelCB) innerCB).onDownloadCancel();
+            } else if (innerCB != null) {
+                // 未支持取消通知的下载进度通知，以出错的方式关闭
+                innerCB.onDownloadError(new CancellationException("Download task was cancelled"));
+            }
+        } catch (Throwable t) {
+            t.printStackTrace();
+        } finally {
+            release();
+        }
+    }
+
     @Override
     public void release() {
         this.builder = null;
@@ -11,7 +11,7 @@ import java.io.File;
  *
  * @author haoge on 2017/9/26.
  */
-public final class LogCallback implements UpdateCheckCB, UpdateDownloadCB{
+public final class LogCallback implements UpdateCheckCB, UpdateDownloadCB, UpdateTrafficCB, UpdateCancelCB, UpdatePauseCB{
 
     private static LogCallback callback = new LogCallback();
     private LogCallback() {}
@@ -78,6 +78,32 @@ public final class LogCallback implements UpdateCheckCB, UpdateDownloadCB{
         log("ignored for this update: " + update);
     }
 
+    @Override
+    public void onCheckCancel() {
+        log("check update task was canceled");
+    }
+
+    @Override
+    public void onDownloadCancel() {
+        log("download task was canceled");
+    }
+
+    @Override
+    public void onDownloadPause() {
+        log("download task was paused");
+    }
+
+    @Override
+    public void onDownloadResume() {
+        log("download task was resumed");
+    }
+
+    @Override
+    public void onCheckTraffic(String contentEncoding, long transferredBytes, long decodedBytes) {
+        log(String.format("check response transferred %s bytes with encoding [%s], decoded to %s bytes",
+                transferredBytes, contentEncoding, decodedBytes));
+    }
+
     private void log(String message) {
         if (LOG) {
             Log.d(TAG, message);
@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2017 Haoge
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lzh.framework.updatepluginlib.callback;
+
+import org.lzh.framework.updatepluginlib.UpdateBuilder;
+import org.lzh.framework.updatepluginlib.UpdateConfig;
+import org.lzh.framework.updatepluginlib.UpdateTask;
+
+/**
+ * 更新任务被取消时的回调。
+ *
+ * <p>设置方式：使通过{@link UpdateConfig#checkCB(UpdateCheckCB)}、{@link UpdateBuilder#checkCB(UpdateCheckCB)}设置的检查回调，
+ * 或者通过{@link UpdateConfig#downloadCB(UpdateDownloadCB)}、{@link UpdateBuilder#downloadCB(UpdateDownloadCB)}设置的下载回调同时实现此接口即可。
+ *
+ * <p>任务通过{@link UpdateTask#cancel()}取消后，将通知到此，而不再通知出错。未实现此接口的回调不会收到任何通知
+ *
+ * @author haoge
+ */
+public interface UpdateCancelCB {
+
+    /**
+     * 检查更新任务被取消
+     *
+     * <p>回调线程：UI
+     */
+    void onCheckCancel();
+
+    /**
+     * 下载任务被取消。已下载的部分将被保留，下次下载时继续
+     *
+     * <p>回调线程：UI
+     */
+    void onDownloadCancel();
+}
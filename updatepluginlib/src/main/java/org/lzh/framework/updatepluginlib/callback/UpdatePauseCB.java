@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) 2017 Haoge
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lzh.framework.updatepluginlib.callback;
+
+import org.lzh.framework.updatepluginlib.UpdateBuilder;
+import org.lzh.framework.updatepluginlib.UpdateConfig;
+import org.lzh.framework.updatepluginlib.UpdateTask;
+
+/**
+ * 下载任务暂停与恢复时的回调。
+ *
+ * <p>设置方式：使通过{@link UpdateConfig#downloadCB(UpdateDownloadCB)}或者{@link UpdateBuilder#downloadCB(UpdateDownloadCB)}
+ * 设置的下载回调同时实现此接口即可。下载通过{@link UpdateTask#pause()}暂停、{@link UpdateTask#resume()}恢复时通知到此。
+ *
+ * @author haoge
+ */
+public interface UpdatePauseCB {
+
+    /**
+     * 下载已暂停。已下载的进度均已保存
+     *
+     * <p>回调线程：UI
+     */
+    void onDownloadPause();
+
+    /**
+     * 下载已恢复，将从暂停时的进度继续下载
+     *
+     * <p>回调线程：UI
+     */
+    void onDownloadResume();
+}
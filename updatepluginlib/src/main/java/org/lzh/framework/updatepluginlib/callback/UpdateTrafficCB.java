@@ -0,0 +1,42 @@
+/*
+ * Copyright (C) 2017 Haoge
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lzh.framework.updatepluginlib.callback;
+
+import org.lzh.framework.updatepluginlib.UpdateBuilder;
+import org.lzh.framework.updatepluginlib.UpdateConfig;
+import org.lzh.framework.updatepluginlib.business.DefaultUpdateWorker;
+
+/**
+ * 检查更新api的流量统计回调。
+ *
+ * <p>设置方式：使通过{@link UpdateConfig#checkCB(UpdateCheckCB)}或者{@link UpdateBuilder#checkCB(UpdateCheckCB)}
+ * 设置的检查回调同时实现此接口即可。{@link DefaultUpdateWorker}在读取完响应数据后通知到此。
+ *
+ * @author haoge
+ */
+public interface UpdateTrafficCB {
+
+    /**
+     * 更新api响应数据读取完毕时通知到此。
+     *
+     * <p>回调线程：UI
+     *
+     * @param contentEncoding 响应数据的压缩格式，如gzip、deflate。未压缩时为null
+     * @param transferredBytes 实际传输的(压缩后的)数据长度
+     * @param decodedBytes 解压后的数据长度
+     */
+    void onCheckTraffic(String contentEncoding, long transferredBytes, long decodedBytes);
+}
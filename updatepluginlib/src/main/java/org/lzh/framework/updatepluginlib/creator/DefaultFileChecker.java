@@ -19,19 +19,57 @@ import android.content.Context;
 import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 
+import org.lzh.framework.updatepluginlib.business.DefaultDownloadWorker;
+import org.lzh.framework.updatepluginlib.business.DownloadJournal;
 import org.lzh.framework.updatepluginlib.model.Update;
 import org.lzh.framework.updatepluginlib.util.ActivityManager;
+import org.lzh.framework.updatepluginlib.util.ResumableDigest;
 
 import java.io.File;
 
 /**
  * 默认的apk文件检查器。
+ *
+ * <p>当更新数据中提供了SHA-256或MD5值时，对文件摘要进行校验。摘要值优先从{@link DefaultDownloadWorker}在下载时所保存的下载记录中读取，
+ * 无可用记录时才读取整个文件进行计算。
+ *
+ * <p>未提供摘要值时，校验apk的版本号是否与更新数据一致。
+ *
  * @author haoge
  */
 public class DefaultFileChecker implements FileChecker {
 
     private void check(Update update, String file) throws Exception {
-        // TODO: 2017/11/27 添加MD5支持
+        String algorithm = ResumableDigest.getAlgorithm(update);
+        if (algorithm != null) {
+            checkDigest(update, algorithm, new File(file));
+        } else {
+            checkVersion(update, file);
+        }
+    }
+
+    private void checkDigest(Update update, String algorithm, File file) throws Exception {
+        String expected = ResumableDigest.SHA256.equals(algorithm) ? update.getSha256() : update.getMd5();
+        String actual = null;
+        DownloadJournal journal = DownloadJournal.open(file);
+        if (journal.getSegmentCount() > 0) {
+            if (!journal.isCompleted() || journal.getTotalLength() != file.length()) {
+                throw new IllegalStateException("The apk file has not been downloaded completely: " + file);
+            }
+            actual = journal.getDigestHex(algorithm);
+        }
+        if (actual == null) {
+            actual = ResumableDigest.digestHex(algorithm, file);
+        }
+        if (!expected.equalsIgnoreCase(actual)) {
+            throw new IllegalStateException(
+                    String.format("The %s not matched between apk and update entity. apk is %s but update is %s",
+                            algorithm, actual, expected)
+            );
+        }
+    }
+
+    private void checkVersion(Update update, String file) throws Exception {
         Context context = ActivityManager.get().getApplicationContext();
         PackageManager packageManager = context.getPackageManager();
         PackageInfo packageInfo = packageManager.getPackageArchiveInfo(file, PackageManager.GET_ACTIVITIES);
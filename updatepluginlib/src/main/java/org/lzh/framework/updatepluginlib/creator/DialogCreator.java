@@ -21,6 +21,7 @@ import android.app.Dialog;
 import org.lzh.framework.updatepluginlib.UpdateBuilder;
 import org.lzh.framework.updatepluginlib.UpdateConfig;
 import org.lzh.framework.updatepluginlib.Updater;
+import org.lzh.framework.updatepluginlib.business.WarmUpTask;
 import org.lzh.framework.updatepluginlib.callback.UpdateCheckCB;
 import org.lzh.framework.updatepluginlib.model.Update;
 import org.lzh.framework.updatepluginlib.strategy.UpdateStrategy;
@@ -72,7 +73,8 @@ public abstract class DialogCreator implements Recyclable {
      * @param update 更新数据实体类
      */
     protected void sendDownloadRequest(Update update) {
-        Updater.getInstance().downUpdate(update,builder);
+        // 由用户主动触发的下载，不进行限速
+        Updater.getInstance().downUpdate(update,builder,false);
         release();
     }
 
@@ -80,6 +82,7 @@ public abstract class DialogCreator implements Recyclable {
      * 当用户手动取消此次更新任务时，通过此方法进行取消并通知用户
      */
     protected void sendUserCancel() {
+        WarmUpTask.cancel(builder);
         if (this.checkCB != null) {
             this.checkCB.onUserCancel();
         }
@@ -91,6 +94,7 @@ public abstract class DialogCreator implements Recyclable {
      * @param update 更新数据实体类
      */
     protected void sendUserIgnore(Update update) {
+        WarmUpTask.cancel(builder);
         if (this.checkCB != null) {
             this.checkCB.onCheckIgnore(update);
         }
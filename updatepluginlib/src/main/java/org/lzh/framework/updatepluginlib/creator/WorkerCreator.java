@@ -0,0 +1,35 @@
+/*
+ * Copyright (C) 2017 Haoge
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lzh.framework.updatepluginlib.creator;
+
+import org.lzh.framework.updatepluginlib.UpdateBuilder;
+import org.lzh.framework.updatepluginlib.UpdateConfig;
+import org.lzh.framework.updatepluginlib.business.UnifiedWorker;
+
+/**
+ * 此接口用于创建检查更新及下载的网络任务实例。
+ *
+ * <p>设置方式：通过{@link UpdateConfig#checkWorkerCreator(WorkerCreator)}或者{@link UpdateConfig#downloadWorkerCreator(WorkerCreator)}进行配置
+ *
+ * <p>每个{@link UpdateBuilder}在首次使用时通过此接口创建各自的任务实例，不同更新任务实例之间的检查与下载可并行执行，互不影响。
+ * 因此每次调用均需返回新的实例
+ *
+ * @author haoge
+ */
+public interface WorkerCreator<T extends UnifiedWorker> {
+
+    T create();
+}
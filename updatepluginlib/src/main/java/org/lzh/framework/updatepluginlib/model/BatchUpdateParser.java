@@ -0,0 +1,41 @@
+/*
+ * Copyright (C) 2017 Haoge
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lzh.framework.updatepluginlib.model;
+
+import org.lzh.framework.updatepluginlib.BatchUpdateBuilder;
+import org.lzh.framework.updatepluginlib.UpdateBuilder;
+
+import java.util.Map;
+
+/**
+ * 用于拆分批量检查更新api返回的数据。将其拆分为各个更新组件对应的数据，再分别交由各组件配置的{@link UpdateParser}进行解析
+ *
+ * <p>配置方式：通过{@link BatchUpdateBuilder#batchParser(BatchUpdateParser)}
+ *
+ * @author haoge
+ */
+public interface BatchUpdateParser {
+
+    /**
+     * 拆分批量检查更新api返回的数据
+     *
+     * @param httpResponse 批量检查更新api返回的数据
+     * @return 以组件标识({@link BatchUpdateBuilder#add(String, int, UpdateBuilder)})为key，组件对应的更新数据为value。
+     * 未包含在内的组件视为无更新。不能为null
+     * @throws Exception error occurs.
+     */
+    Map<String, String> split(String httpResponse) throws Exception;
+}
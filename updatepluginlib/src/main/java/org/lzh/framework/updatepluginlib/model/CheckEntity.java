@@ -62,4 +62,22 @@ public class CheckEntity {
         this.params = params;
         return this;
     }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof CheckEntity)) return false;
+        CheckEntity that = (CheckEntity) o;
+        return (method == null ? that.method == null : method.equalsIgnoreCase(that.method))
+                && (url == null ? that.url == null : url.equals(that.url))
+                && getParams().equals(that.getParams());
+    }
+
+    @Override
+    public int hashCode() {
+        int result = method == null ? 0 : method.toUpperCase().hashCode();
+        result = 31 * result + (url == null ? 0 : url.hashCode());
+        result = 31 * result + getParams().hashCode();
+        return result;
+    }
 }
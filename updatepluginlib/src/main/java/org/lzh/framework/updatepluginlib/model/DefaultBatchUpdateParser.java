@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2017 Haoge
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lzh.framework.updatepluginlib.model;
+
+import org.lzh.framework.updatepluginlib.BatchUpdateBuilder;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 默认提供的批量更新数据拆分器。当未通过{@link BatchUpdateBuilder#batchParser(BatchUpdateParser)}进行配置时使用。支持的数据格式为：
+ * <pre>
+ * {
+ *     "host": {"update_url": "...", "update_ver_code": 2, ...},   // 组件标识: 组件对应的更新数据
+ *     "plugin_a": {"update_url": "...", "update_ver_code": 5, ...}
+ * }
+ * </pre>
+ * 组件数据将原样交由组件所配置的{@link UpdateParser}进行解析。值为null的组件视为无更新。
+ *
+ * @author haoge
+ */
+public class DefaultBatchUpdateParser implements BatchUpdateParser {
+
+    @Override
+    public Map<String, String> split(String httpResponse) throws Exception {
+        Scanner scanner = new Scanner(httpResponse);
+        Map<String, String> result = new HashMap<>();
+        StringBuilder key = new StringBuilder();
+
+        scanner.expect('{');
+        if (scanner.peek() == '}') {
+            return result;
+        }
+        char next;
+        do {
+            key.setLength(0);
+            scanner.expect('"');
+            scanner.readString(key);
+            scanner.expect(':');
+            int start = scanner.skipWhitespace();
+            scanner.skipValue();
+            String value = httpResponse.substring(start, scanner.position);
+            if (!"null".equals(value)) {
+                result.put(key.toString(), value);
+            }
+            next = scanner.read();
+        } while (next == ',');
+        if (next != '}') {
+            throw scanner.syntaxError("Expected ',' or '}' but was '" + next + "'");
+        }
+        return result;
+    }
+
+    /**
+     * 在完整数据上进行扫描，仅用于确定各组件数据的范围
+     */
+    private static final class Scanner {
+
+        private final String text;
+        private int position;
+
+        Scanner(String text) {
+            this.text = text;
+        }
+
+        int skipWhitespace() {
+            while (position < text.length()) {
+                char c = text.charAt(position);
+                if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+                    break;
+                }
+                position++;
+            }
+            return position;
+        }
+
+        int peek() {
+            skipWhitespace();
+            return position < text.length() ? text.charAt(position) : -1;
+        }
+
+        char read() throws IOException {
+            if (peek() == -1) {
+                throw new IOException("Unexpected end of json");
+            }
+            return text.charAt(position++);
+        }
+
+        void expect(char expected) throws IOException {
+            char c = read();
+            if (c != expected) {
+                throw syntaxError("Expected '" + expected + "' but was '" + c + "'");
+            }
+        }
+
+        /**
+         * 读取字符串剩余部分(起始的引号已被消费)。out为null时仅跳过
+         */
+        void readString(StringBuilder out) throws IOException {
+            while (position < text.length()) {
+                char c = text.charAt(position++);
+                if (c == '"') {
+                    return;
+                }
+                if (c == '\\') {
+                    if (position >= text.length()) {
+                        break;
+                    }
+                    c = text.charAt(position++);
+                    if (c == 'u' && position + 4 <= text.length()) {
+                        c = (char) Integer.parseInt(text.substring(position, position + 4), 16);
+                        position += 4;
+                    } else if (c == 'n') {
+                        c = '\n';
+                    } else if (c == 't') {
+                        c = '\t';
+                    } else if (c == 'r') {
+                        c = '\r';
+                    } else if (c == 'b') {
+                        c = '\b';
+                    } else if (c == 'f') {
+                        c = '\f';
+                    }
+                }
+                if (out != null) {
+                    out.append(c);
+                }
+            }
+            throw new IOException("Unterminated string");
+        }
+
+        /**
+         * 跳过一个任意类型的值，包括嵌套的对象与数组
+         */
+        void skipValue() throws IOException {
+            int depth = 0;
+            do {
+                char c = read();
+                if (c == '"') {
+                    readString(null);
+                } else if (c == '{' || c == '[') {
+                    depth++;
+                } else if (c == '}' || c == ']') {
+                    if (depth == 0) {
+                        throw syntaxError("Unexpected '" + c + "'");
+                    }
+                    depth--;
+                } else if (c != ',' && c != ':') {
+                    skipLiteral();
+                }
+            } while (depth > 0);
+        }
+
+        private void skipLiteral() throws IOException {
+            int start = position - 1;
+            while (position < text.length()) {
+                char c = text.charAt(position);
+                if (c == ',' || c == '}' || c == ']' || c == ' ' || c == '\n' || c == '\r' || c == '\t') {
+                    break;
+                }
+                position++;
+            }
+            if (position == start) {
+                throw syntaxError("Expected a value");
+            }
+        }
+
+        IOException syntaxError(String message) {
+            return new IOException("Malformed json: " + message);
+        }
+    }
+}
@@ -0,0 +1,348 @@
+/*
+ * Copyright (C) 2017 Haoge
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lzh.framework.updatepluginlib.model;
+
+import org.lzh.framework.updatepluginlib.UpdateBuilder;
+import org.lzh.framework.updatepluginlib.UpdateConfig;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * 默认提供的更新数据解析器。当未通过{@link UpdateConfig#jsonParser(UpdateParser)}或{@link UpdateBuilder#jsonParser(UpdateParser)}
+ * 进行配置时使用。
+ *
+ * <p>直接从响应流中按顺序读取所需字段并填充到{@link Update}中，不构建中间的json对象树。支持的数据格式为：
+ * <pre>
+ * {
+ *     "update_url": "http://example.com/app.apk",  // apk下载地址
+ *     "update_ver_code": 2,                        // 版本号
+ *     "update_ver_name": "1.1.0",                  // 版本名称
+ *     "update_content": "...",                     // 更新内容
+ *     "ignore_able": false,                        // 是否显示忽略此版本按钮
+ *     "forced": false,                             // 是否为强制更新
+ *     "md5": "...",                                // apk文件md5
+ *     "sha256": "...",                             // apk文件sha256
+ *     "mirror_urls": ["http://mirror.com/app.apk"],// apk下载镜像地址
+ *     "next_check_interval": 86400                 // 建议的下次检查间隔，单位秒
+ * }
+ * </pre>
+ * 所有字段均为可选，未知字段将被跳过。数值与布尔字段同样接受字符串形式，如"2"、"true"。
+ *
+ * @author haoge
+ */
+public class DefaultUpdateParser extends StreamUpdateParser {
+
+    @Override
+    public Update parse(Reader reader) throws Exception {
+        Lexer lexer = new Lexer(reader);
+        Update update = new Update();
+        StringBuilder key = new StringBuilder();
+        StringBuilder value = new StringBuilder();
+
+        lexer.expect('{');
+        if (lexer.peek() == '}') {
+            lexer.read();
+            return update;
+        }
+        do {
+            key.setLength(0);
+            lexer.expect('"');
+            lexer.readString(key);
+            lexer.expect(':');
+
+            if ("mirror_urls".contentEquals(key)) {
+                readMirrorUrls(lexer, update, value);
+                continue;
+            }
+            if (!isKnownKey(key)) {
+                lexer.skipValue();
+                continue;
+            }
+            if (!lexer.readScalar(value)) {
+                // null值：保持默认
+                continue;
+            }
+            if ("update_url".contentEquals(key)) {
+                update.setUpdateUrl(value.toString());
+            } else if ("update_ver_code".contentEquals(key)) {
+                update.setVersionCode(toInt(value));
+            } else if ("update_ver_name".contentEquals(key)) {
+                update.setVersionName(value.toString());
+            } else if ("update_content".contentEquals(key)) {
+                update.setUpdateContent(value.toString());
+            } else if ("ignore_able".contentEquals(key)) {
+                update.setIgnore(toBoolean(value));
+            } else if ("forced".contentEquals(key)) {
+                update.setForced(toBoolean(value));
+            } else if ("md5".contentEquals(key)) {
+                update.setMd5(value.toString());
+            } else if ("sha256".contentEquals(key)) {
+                update.setSha256(value.toString());
+            } else if ("next_check_interval".contentEquals(key)) {
+                update.setNextCheckInterval(toInt(value) * 1000L);
+            }
+        } while (lexer.nextMember());
+        return update;
+    }
+
+    private static boolean isKnownKey(StringBuilder key) {
+        return "update_url".contentEquals(key)
+                || "update_ver_code".contentEquals(key)
+                || "update_ver_name".contentEquals(key)
+                || "update_content".contentEquals(key)
+                || "ignore_able".contentEquals(key)
+                || "forced".contentEquals(key)
+                || "md5".contentEquals(key)
+                || "sha256".contentEquals(key)
+                || "next_check_interval".contentEquals(key);
+    }
+
+    private void readMirrorUrls(Lexer lexer, Update update, StringBuilder value) throws IOException {
+        if (lexer.peek() != '[') {
+            lexer.skipValue();
+            return;
+        }
+        lexer.read();
+        if (lexer.peek() == ']') {
+            lexer.read();
+            return;
+        }
+        do {
+            if (lexer.readScalar(value) && value.length() > 0) {
+                update.addMirrorUrl(value.toString());
+            }
+        } while (lexer.nextElement());
+    }
+
+    private static int toInt(StringBuilder value) {
+        String text = value.toString().trim();
+        try {
+            return Integer.parseInt(text);
+        } catch (NumberFormatException e) {
+            // 兼容"2.0"、"1e2"等形式
+            try {
+                return (int) Double.parseDouble(text);
+            } catch (NumberFormatException ignore) {
+                return 0;
+            }
+        }
+    }
+
+    private static boolean toBoolean(StringBuilder value) {
+        return "true".contentEquals(value) || "TRUE".contentEquals(value) || "True".contentEquals(value);
+    }
+
+    /**
+     * 最简json词法读取器。自行维护读取缓冲区，读取过程中仅在返回字段值时产生对象
+     */
+    private static final class Lexer {
+
+        private final Reader reader;
+        private final char[] buffer = new char[1024];
+        private int position;
+        private int limit;
+
+        Lexer(Reader reader) {
+            this.reader = reader;
+        }
+
+        /**
+         * 跳过空白字符后，返回下一个字符但不消费。已到达末尾时返回-1
+         */
+        int peek() throws IOException {
+            while (true) {
+                if (position == limit && !fill()) {
+                    return -1;
+                }
+                char c = buffer[position];
+                if (c == ' ' || c == '\n' || c == '\r' || c == '\t') {
+                    position++;
+                } else {
+                    return c;
+                }
+            }
+        }
+
+        /**
+         * 跳过空白字符后，消费并返回下一个字符
+         */
+        char read() throws IOException {
+            int c = peek();
+            if (c == -1) {
+                throw new IOException("Unexpected end of json");
+            }
+            position++;
+            return (char) c;
+        }
+
+        void expect(char expected) throws IOException {
+            char c = read();
+            if (c != expected) {
+                throw syntaxError("Expected '" + expected + "' but was '" + c + "'");
+            }
+        }
+
+        /**
+         * 对象中的下一个成员：遇到','返回true，遇到'}'返回false
+         */
+        boolean nextMember() throws IOException {
+            return next('}');
+        }
+
+        /**
+         * 数组中的下一个元素：遇到','返回true，遇到']'返回false
+         */
+        boolean nextElement() throws IOException {
+            return next(']');
+        }
+
+        private boolean next(char end) throws IOException {
+            char c = read();
+            if (c == ',') {
+                return true;
+            }
+            if (c == end) {
+                return false;
+            }
+            throw syntaxError("Expected ',' or '" + end + "' but was '" + c + "'");
+        }
+
+        /**
+         * 读取字符串剩余部分(起始的引号已被消费)。out为null时仅跳过
+         */
+        void readString(StringBuilder out) throws IOException {
+            while (true) {
+                if (position == limit && !fill()) {
+                    throw new IOException("Unterminated string");
+                }
+                char c = buffer[position++];
+                if (c == '"') {
+                    return;
+                }
+                if (c == '\\') {
+                    c = readEscape();
+                }
+                if (out != null) {
+                    out.append(c);
+                }
+            }
+        }
+
+        private char readEscape() throws IOException {
+            char c = readRaw();
+            switch (c) {
+                case 'b': return '\b';
+                case 'f': return '\f';
+                case 'n': return '\n';
+                case 'r': return '\r';
+                case 't': return '\t';
+                case 'u':
+                    int value = 0;
+                    for (int i = 0; i < 4; i++) {
+                        int digit = Character.digit(readRaw(), 16);
+                        if (digit == -1) {
+                            throw syntaxError("Invalid unicode escape");
+                        }
+                        value = (value << 4) | digit;
+                    }
+                    return (char) value;
+                default:
+                    // '"'、'\\'、'/'
+                    return c;
+            }
+        }
+
+        private char readRaw() throws IOException {
+            if (position == limit && !fill()) {
+                throw new IOException("Unterminated string");
+            }
+            return buffer[position++];
+        }
+
+        /**
+         * 读取一个字符串、数值或布尔值到out中。值为null时返回false，值为对象或数组时跳过并返回false
+         */
+        boolean readScalar(StringBuilder out) throws IOException {
+            out.setLength(0);
+            int c = peek();
+            if (c == '"') {
+                position++;
+                readString(out);
+                return true;
+            }
+            if (c == '{' || c == '[') {
+                skipValue();
+                return false;
+            }
+            readLiteral(out);
+            return !"null".contentEquals(out);
+        }
+
+        private void readLiteral(StringBuilder out) throws IOException {
+            while (true) {
+                if (position == limit && !fill()) {
+                    break;
+                }
+                char c = buffer[position];
+                if (c == ',' || c == '}' || c == ']' || c == ' ' || c == '\n' || c == '\r' || c == '\t') {
+                    break;
+                }
+                if (out != null) {
+                    out.append(c);
+                }
+                position++;
+            }
+            if (out != null && out.length() == 0) {
+                throw syntaxError("Expected a value");
+            }
+        }
+
+        /**
+         * 跳过一个任意类型的值，包括嵌套的对象与数组
+         */
+        void skipValue() throws IOException {
+            int depth = 0;
+            do {
+                char c = read();
+                if (c == '"') {
+                    readString(null);
+                } else if (c == '{' || c == '[') {
+                    depth++;
+                } else if (c == '}' || c == ']') {
+                    depth--;
+                } else if (c != ',' && c != ':') {
+                    position--;
+                    readLiteral(null);
+                }
+            } while (depth > 0);
+        }
+
+        private boolean fill() throws IOException {
+            int count = reader.read(buffer, 0, buffer.length);
+            if (count <= 0) {
+                return false;
+            }
+            position = 0;
+            limit = count;
+            return true;
+        }
+
+        private IOException syntaxError(String message) {
+            return new IOException("Malformed json: " + message);
+        }
+    }
+}
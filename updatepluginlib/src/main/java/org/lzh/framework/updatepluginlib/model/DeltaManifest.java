@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2017 Haoge
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lzh.framework.updatepluginlib.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 基于zip条目的增量更新清单。用于描述如何利用已安装的apk与一份增量数据，逐字节还原出新版本apk。
+ *
+ * <p>新版本apk被描述为一组按顺序拼接的片段({@link Part})：
+ * <ul>
+ *     <li>{@link Part#TYPE_ENTRY}：直接复用已安装apk中同名条目的压缩数据。未改变的条目无需下载</li>
+ *     <li>{@link Part#TYPE_DATA}：从增量数据中按顺序读取指定长度的数据。用于新增或改变的条目、文件头、中央目录及签名块等</li>
+ * </ul>
+ *
+ * <p>增量数据即为所有{@link Part#TYPE_DATA}片段按顺序拼接而成的文件，通过{@link #getPayloadUrl()}进行下载。
+ * 还原后的apk与服务器上的完整apk逐字节一致，因此签名依旧有效。
+ *
+ * <p>此清单应由检查更新api与其他更新数据一同返回，并通过{@link Update#setDeltaManifest(DeltaManifest)}进行设置。
+ *
+ * @author haoge
+ */
+public class DeltaManifest {
+
+    private int baseVersionCode;
+    private String payloadUrl;
+    private List<Part> parts;
+
+    /**
+     * 设置此清单所对应的旧版本apk版本号。只有已安装的apk版本号与此一致时才会使用此清单
+     * @param baseVersionCode 旧版本apk版本号
+     */
+    public void setBaseVersionCode(int baseVersionCode) {
+        this.baseVersionCode = baseVersionCode;
+    }
+
+    /**
+     * 设置增量数据的下载地址
+     * @param payloadUrl 增量数据url地址
+     */
+    public void setPayloadUrl(String payloadUrl) {
+        this.payloadUrl = payloadUrl;
+    }
+
+    /**
+     * 按顺序添加一个片段
+     * @param part 片段
+     */
+    public void addPart(Part part) {
+        getParts().add(part);
+    }
+
+    public void setParts(List<Part> parts) {
+        this.parts = parts;
+    }
+
+    public int getBaseVersionCode() {
+        return baseVersionCode;
+    }
+
+    public String getPayloadUrl() {
+        return payloadUrl;
+    }
+
+    public List<Part> getParts() {
+        if (parts == null) {
+            parts = new ArrayList<>();
+        }
+        return parts;
+    }
+
+    /**
+     * @return 需要从增量数据中读取的总长度，即增量数据文件的长度
+     */
+    public long getPayloadLength() {
+        long length = 0;
+        for (Part part : getParts()) {
+            if (part.getType() == Part.TYPE_DATA) {
+                length += part.getLength();
+            }
+        }
+        return length;
+    }
+
+    @Override
+    public String toString() {
+        return "DeltaManifest{" +
+                "baseVersionCode=" + baseVersionCode +
+                ", payloadUrl='" + payloadUrl + '\'' +
+                ", parts=" + getParts().size() +
+                '}';
+    }
+
+    /**
+     * 新版本apk中的一个片段
+     */
+    public static class Part {
+        public static final int TYPE_DATA = 0;
+        public static final int TYPE_ENTRY = 1;
+
+        private final int type;
+        private final String entryName;
+        private final long length;
+
+        private Part(int type, String entryName, long length) {
+            this.type = type;
+            this.entryName = entryName;
+            this.length = length;
+        }
+
+        /**
+         * 创建一个从增量数据中读取的片段
+         * @param length 片段长度
+         * @return 片段
+         */
+        public static Part data(long length) {
+            return new Part(TYPE_DATA, null, length);
+        }
+
+        /**
+         * 创建一个复用已安装apk中条目压缩数据的片段
+         * @param entryName 条目名称
+         * @return 片段
+         */
+        public static Part entry(String entryName) {
+            return new Part(TYPE_ENTRY, entryName, -1);
+        }
+
+        public int getType() {
+            return type;
+        }
+
+        public String getEntryName() {
+            return entryName;
+        }
+
+        public long getLength() {
+            return length;
+        }
+    }
+}
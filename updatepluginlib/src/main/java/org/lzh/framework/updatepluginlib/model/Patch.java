@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2017 Haoge
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lzh.framework.updatepluginlib.model;
+
+import org.lzh.framework.updatepluginlib.business.DownloadWorker;
+
+/**
+ * 差分包数据实体类。用于描述从某个已安装版本升级到新版本时所使用的差分包。
+ *
+ * <p>当已安装的apk版本号与{@link #getBaseVersionCode()}一致时，{@link DownloadWorker}将优先下载此差分包，
+ * 并与已安装的apk合成新版本apk。合成失败时将自动降级为下载完整apk。
+ *
+ * @author haoge
+ */
+public class Patch {
+
+    private int baseVersionCode;
+    private String patchUrl;
+
+    public Patch() {}
+
+    public Patch(int baseVersionCode, String patchUrl) {
+        this.baseVersionCode = baseVersionCode;
+        this.patchUrl = patchUrl;
+    }
+
+    /**
+     * 设置此差分包所对应的旧版本apk版本号
+     * @param baseVersionCode 旧版本apk版本号
+     */
+    public void setBaseVersionCode(int baseVersionCode) {
+        this.baseVersionCode = baseVersionCode;
+    }
+
+    /**
+     * 设置差分包下载地址
+     * @param patchUrl 差分包url地址
+     */
+    public void setPatchUrl(String patchUrl) {
+        this.patchUrl = patchUrl;
+    }
+
+    public int getBaseVersionCode() {
+        return baseVersionCode;
+    }
+
+    public String getPatchUrl() {
+        return patchUrl;
+    }
+
+    @Override
+    public String toString() {
+        return "Patch{" +
+                "baseVersionCode=" + baseVersionCode +
+                ", patchUrl='" + patchUrl + '\'' +
+                '}';
+    }
+}
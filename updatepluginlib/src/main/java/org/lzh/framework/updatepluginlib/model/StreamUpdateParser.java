@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2017 Haoge
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lzh.framework.updatepluginlib.model;
+
+import org.lzh.framework.updatepluginlib.business.UpdateWorker;
+
+import java.io.Reader;
+import java.io.StringReader;
+
+/**
+ * 支持流式解析的{@link UpdateParser}。
+ *
+ * <p>使用此解析器时，{@link UpdateWorker}将直接把网络响应流交由{@link #parse(Reader)}进行解析，边接收边解析，
+ * 无需先将完整的响应数据读取为字符串。适用于数据量较大的更新api。
+ *
+ * <p>当响应数据已经是字符串时(如使用缓存数据时)，将通过{@link #parse(String)}包装为流后进行解析。
+ *
+ * @author haoge
+ */
+public abstract class StreamUpdateParser implements UpdateParser {
+
+    /**
+     * 从响应流中解析出更新数据实体类。
+     *
+     * <p>无需关闭传入的流，框架将在解析完成后进行关闭
+     *
+     * @param reader 更新api返回数据流
+     * @return 被创建的更新数据实体类。不能为null
+     * @throws Exception error occurs.
+     */
+    public abstract Update parse(Reader reader) throws Exception;
+
+    @Override
+    public Update parse(String httpResponse) throws Exception {
+        return parse(new StringReader(httpResponse));
+    }
+}
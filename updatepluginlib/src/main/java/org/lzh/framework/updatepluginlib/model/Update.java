@@ -19,6 +19,9 @@ import org.lzh.framework.updatepluginlib.creator.DefaultNeedInstallCreator;
 import org.lzh.framework.updatepluginlib.creator.DefaultNeedUpdateCreator;
 import org.lzh.framework.updatepluginlib.strategy.ForcedUpdateStrategy;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * 此实体类用于存储框架所需的更新数据。
  *
@@ -30,9 +33,14 @@ public class Update {
     private boolean ignore;
     private String updateContent;
     private String updateUrl;
+    private List<String> mirrorUrls;
     private int versionCode;
     private String versionName;
     private String md5;
+    private String sha256;
+    private List<Patch> patches;
+    private DeltaManifest deltaManifest;
+    private long nextCheckInterval;
 
     /**
      * <p>指定是否要求展示忽略此版本更新按钮：
@@ -70,6 +78,25 @@ public class Update {
         this.updateUrl = updateUrl;
     }
 
+    /**
+     * 添加一个更新包的镜像地址。镜像地址所对应的文件需与{@link #setUpdateUrl(String)}完全一致。
+     *
+     * <p>存在镜像地址时，默认下载器将对所有地址进行测速并选择最快的地址进行下载，下载出错时自动切换到下一个地址继续下载
+     * @param mirrorUrl 镜像url地址
+     */
+    public void addMirrorUrl(String mirrorUrl) {
+        getMirrorUrls().add(mirrorUrl);
+    }
+
+    /**
+     * 设置更新包的镜像地址列表
+     * @param mirrorUrls 镜像url地址列表
+     * @see #addMirrorUrl(String)
+     */
+    public void setMirrorUrls(List<String> mirrorUrls) {
+        this.mirrorUrls = mirrorUrls;
+    }
+
     /**
      * 新版本apk的版本号。此版本号将被用于与本地apk进行版本号比对。判断该版本是否应该被更新. 默认版本号检查器为：{@link DefaultChecker}.
      * @param versionCode apk版本号
@@ -94,6 +121,48 @@ public class Update {
         this.md5 = md5;
     }
 
+    /**
+     * 指定下载文件的SHA-256值。用于对下载文件进行检查时使用。当同时提供MD5与SHA-256时，优先使用SHA-256进行校验
+     * @param sha256 SHA-256
+     */
+    public void setSha256(String sha256) {
+        this.sha256 = sha256;
+    }
+
+    /**
+     * 添加一个可用于升级到此版本的差分包。可针对不同的旧版本分别添加
+     * @param patch 差分包数据
+     * @see Patch
+     */
+    public void addPatch(Patch patch) {
+        getPatches().add(patch);
+    }
+
+    /**
+     * 设置可用于升级到此版本的差分包列表
+     * @param patches 差分包列表
+     */
+    public void setPatches(List<Patch> patches) {
+        this.patches = patches;
+    }
+
+    /**
+     * 设置基于zip条目的增量更新清单。当已安装的apk版本与清单对应时，将优先使用此清单进行增量更新
+     * @param deltaManifest 增量更新清单
+     * @see DeltaManifest
+     */
+    public void setDeltaManifest(DeltaManifest deltaManifest) {
+        this.deltaManifest = deltaManifest;
+    }
+
+    /**
+     * 设置服务器建议的下次检查间隔。{@link org.lzh.framework.updatepluginlib.business.CheckScheduler}在此间隔内不会再次检查
+     * @param nextCheckInterval 下次检查间隔，单位毫秒。小于等于0时代表无建议
+     */
+    public void setNextCheckInterval(long nextCheckInterval) {
+        this.nextCheckInterval = nextCheckInterval;
+    }
+
     public boolean isForced() {
         return forced;
     }
@@ -110,6 +179,13 @@ public class Update {
         return updateUrl;
     }
 
+    public List<String> getMirrorUrls() {
+        if (mirrorUrls == null) {
+            mirrorUrls = new ArrayList<>();
+        }
+        return mirrorUrls;
+    }
+
     public int getVersionCode() {
         return versionCode;
     }
@@ -122,15 +198,57 @@ public class Update {
         return md5;
     }
 
+    public String getSha256() {
+        return sha256;
+    }
+
+    public List<Patch> getPatches() {
+        if (patches == null) {
+            patches = new ArrayList<>();
+        }
+        return patches;
+    }
+
+    public DeltaManifest getDeltaManifest() {
+        return deltaManifest;
+    }
+
+    public long getNextCheckInterval() {
+        return nextCheckInterval;
+    }
+
+    /**
+     * 查找可用于指定旧版本升级的差分包
+     * @param baseVersionCode 已安装的apk版本号
+     * @return 对应的差分包，不存在时返回null
+     */
+    public Patch findPatch(int baseVersionCode) {
+        if (patches == null) {
+            return null;
+        }
+        for (Patch patch : patches) {
+            if (patch.getBaseVersionCode() == baseVersionCode && patch.getPatchUrl() != null) {
+                return patch;
+            }
+        }
+        return null;
+    }
+
     @Override
     public String toString() {
         return "Update{" +
                 ", forced=" + forced +
                 ", updateContent='" + updateContent + '\'' +
                 ", updateUrl='" + updateUrl + '\'' +
+                ", mirrorUrls=" + mirrorUrls +
                 ", versionCode=" + versionCode +
                 ", versionName='" + versionName + '\'' +
                 ", ignore=" + ignore +
+                ", md5='" + md5 + '\'' +
+                ", sha256='" + sha256 + '\'' +
+                ", patches=" + patches +
+                ", deltaManifest=" + deltaManifest +
+                ", nextCheckInterval=" + nextCheckInterval +
                 '}';
     }
 }
@@ -24,6 +24,8 @@ import org.lzh.framework.updatepluginlib.business.UpdateWorker;
  *
  * <p>配置方式：通过{@link UpdateConfig#jsonParser(UpdateParser)}或者{@link UpdateBuilder#jsonParser(UpdateParser)}
  *
+ * <p>若更新api返回数据较大，可继承{@link StreamUpdateParser}直接对响应流进行解析
+ *
  * @author haoge
  */
 public interface UpdateParser {
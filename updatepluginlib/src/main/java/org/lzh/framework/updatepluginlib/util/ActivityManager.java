@@ -34,6 +34,8 @@ public final class ActivityManager implements Application.ActivityLifecycleCallb
         return manager;
     }
     private LinkedList<Activity> stack = new LinkedList<>();
+    // 处于可见状态的Activity个数。大于0时代表应用处于前台
+    private int startedCount;
 
     @Override
     public void onActivityCreated(Activity activity, Bundle savedInstanceState) {
@@ -44,7 +46,7 @@ public final class ActivityManager implements Application.ActivityLifecycleCallb
 
     @Override
     public void onActivityStarted(Activity activity) {
-
+        startedCount++;
     }
 
     @Override
@@ -59,7 +61,7 @@ public final class ActivityManager implements Application.ActivityLifecycleCallb
 
     @Override
     public void onActivityStopped(Activity activity) {
-
+        startedCount = Math.max(0, startedCount - 1);
     }
 
     @Override
@@ -82,6 +84,13 @@ public final class ActivityManager implements Application.ActivityLifecycleCallb
         return activity;
     }
 
+    /**
+     * @return True代表应用当前处于前台
+     */
+    public boolean isForeground() {
+        return startedCount > 0;
+    }
+
     public Context getApplicationContext() {
         return applicationContext;
     }
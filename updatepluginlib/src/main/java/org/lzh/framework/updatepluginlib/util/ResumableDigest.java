@@ -0,0 +1,427 @@
+/*
+ * Copyright (C) 2017 Haoge
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lzh.framework.updatepluginlib.util;
+
+import android.text.TextUtils;
+
+import org.lzh.framework.updatepluginlib.model.Update;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+
+/**
+ * 可保存及恢复计算状态的摘要算法实现，支持MD5与SHA-256。
+ *
+ * <p>与{@link MessageDigest}的区别在于：可通过{@link #saveState()}导出当前计算状态并在之后通过{@link #restoreState(byte[])}进行恢复。
+ * 用于在下载过程中边下载边计算摘要，断点续传时无需重新读取已下载部分。
+ *
+ * @author haoge
+ */
+public abstract class ResumableDigest {
+
+    public static final String MD5 = "MD5";
+    public static final String SHA256 = "SHA-256";
+
+    private static final int BLOCK_SIZE = 64;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final String algorithm;
+    private final byte[] block = new byte[BLOCK_SIZE];
+    private int blockLength;
+    private long length;
+    // 用于读取直接缓冲区中的数据，避免每次计算时重新分配
+    private byte[] scratch;
+
+    ResumableDigest(String algorithm) {
+        this.algorithm = algorithm;
+    }
+
+    /**
+     * 创建指定算法的摘要实例
+     * @param algorithm {@link #MD5}或者{@link #SHA256}
+     * @return 摘要实例
+     */
+    public static ResumableDigest create(String algorithm) {
+        if (MD5.equalsIgnoreCase(algorithm)) {
+            return new Md5();
+        } else if (SHA256.equalsIgnoreCase(algorithm)) {
+            return new Sha256();
+        }
+        throw new IllegalArgumentException("Unsupported digest algorithm " + algorithm);
+    }
+
+    /**
+     * 读取整个文件计算摘要
+     * @param algorithm 摘要算法
+     * @param file 文件
+     * @return 十六进制小写形式的摘要值
+     * @throws IOException 读取文件失败
+     */
+    public static String digestHex(String algorithm, File file) throws IOException {
+        ResumableDigest digest = create(algorithm);
+        digest.update(file, file.length());
+        return digest.digestHex();
+    }
+
+    /**
+     * 获取用于校验此更新文件所需使用的摘要算法。优先使用SHA-256
+     * @param update 更新数据实体类
+     * @return 摘要算法。未提供任何摘要值时返回null
+     */
+    public static String getAlgorithm(Update update) {
+        if (!TextUtils.isEmpty(update.getSha256())) {
+            return SHA256;
+        } else if (!TextUtils.isEmpty(update.getMd5())) {
+            return MD5;
+        }
+        return null;
+    }
+
+    public final String getAlgorithm() {
+        return algorithm;
+    }
+
+    /**
+     * @return 已计算的数据长度
+     */
+    public final long getLength() {
+        return length;
+    }
+
+    public final void update(byte[] input, int offset, int len) {
+        length += len;
+        if (blockLength > 0) {
+            int count = Math.min(len, BLOCK_SIZE - blockLength);
+            System.arraycopy(input, offset, block, blockLength, count);
+            blockLength += count;
+            offset += count;
+            len -= count;
+            if (blockLength < BLOCK_SIZE) {
+                return;
+            }
+            processBlock(block, 0);
+            blockLength = 0;
+        }
+        while (len >= BLOCK_SIZE) {
+            processBlock(input, offset);
+            offset += BLOCK_SIZE;
+            len -= BLOCK_SIZE;
+        }
+        if (len > 0) {
+            System.arraycopy(input, offset, block, 0, len);
+            blockLength = len;
+        }
+    }
+
+    /**
+     * 使用缓冲区中剩余的数据进行计算。计算后缓冲区的position将移动到limit处
+     * @param input 数据缓冲区
+     */
+    public final void update(ByteBuffer input) {
+        if (input.hasArray()) {
+            update(input.array(), input.arrayOffset() + input.position(), input.remaining());
+            input.position(input.limit());
+            return;
+        }
+        if (scratch == null) {
+            scratch = new byte[8 * 1024];
+        }
+        while (input.hasRemaining()) {
+            int count = Math.min(scratch.length, input.remaining());
+            input.get(scratch, 0, count);
+            update(scratch, 0, count);
+        }
+    }
+
+    /**
+     * 读取文件的前length个字节进行计算。用于在无可用计算状态时补充计算已下载的部分。
+     * @param file 文件
+     * @param length 需要读取的长度
+     * @throws IOException 读取文件失败
+     */
+    public final void update(File file, long length) throws IOException {
+        InputStream input = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[8 * 1024];
+            long remaining = length;
+            int count;
+            while (remaining > 0 && (count = input.read(buffer, 0, (int) Math.min(buffer.length, remaining))) != -1) {
+                update(buffer, 0, count);
+                remaining -= count;
+            }
+            if (remaining > 0) {
+                throw new IOException("File is shorter than expected: " + file);
+            }
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * 计算当前已输入数据的摘要值。此操作不会改变当前的计算状态，可继续输入数据。
+     * @return 摘要值
+     */
+    public final byte[] digest() {
+        ResumableDigest copy = create(algorithm);
+        copy.restoreState(saveState());
+        return copy.finish();
+    }
+
+    /**
+     * @return 十六进制小写形式的摘要值
+     */
+    public final String digestHex() {
+        byte[] digest = digest();
+        char[] chars = new char[digest.length * 2];
+        for (int i = 0; i < digest.length; i++) {
+            chars[i * 2] = HEX[(digest[i] >> 4) & 0x0F];
+            chars[i * 2 + 1] = HEX[digest[i] & 0x0F];
+        }
+        return new String(chars);
+    }
+
+    /**
+     * 导出当前计算状态
+     * @return 计算状态数据
+     */
+    public final byte[] saveState() {
+        int[] words = getWords();
+        ByteBuffer buffer = ByteBuffer.allocate(words.length * 4 + 8 + 4 + blockLength);
+        for (int word : words) {
+            buffer.putInt(word);
+        }
+        buffer.putLong(length);
+        buffer.putInt(blockLength);
+        buffer.put(block, 0, blockLength);
+        return buffer.array();
+    }
+
+    /**
+     * 从{@link #saveState()}导出的数据中恢复计算状态
+     * @param state 计算状态数据
+     * @throws IllegalArgumentException 状态数据无效
+     */
+    public final void restoreState(byte[] state) {
+        int[] words = getWords();
+        ByteBuffer buffer = ByteBuffer.wrap(state);
+        if (state.length < words.length * 4 + 12) {
+            throw new IllegalArgumentException("Invalid digest state");
+        }
+        int[] restored = new int[words.length];
+        for (int i = 0; i < restored.length; i++) {
+            restored[i] = buffer.getInt();
+        }
+        long length = buffer.getLong();
+        int blockLength = buffer.getInt();
+        if (blockLength < 0 || blockLength >= BLOCK_SIZE
+                || blockLength != buffer.remaining()
+                || length % BLOCK_SIZE != blockLength) {
+            throw new IllegalArgumentException("Invalid digest state");
+        }
+        System.arraycopy(restored, 0, words, 0, words.length);
+        buffer.get(block, 0, blockLength);
+        this.blockLength = blockLength;
+        this.length = length;
+    }
+
+    private byte[] finish() {
+        long bits = length << 3;
+        byte[] padding = new byte[(blockLength < 56 ? 56 : 120) - blockLength];
+        padding[0] = (byte) 0x80;
+        update(padding, 0, padding.length);
+        byte[] lengthBytes = new byte[8];
+        for (int i = 0; i < 8; i++) {
+            int shift = isLittleEndian() ? i * 8 : (7 - i) * 8;
+            lengthBytes[i] = (byte) (bits >>> shift);
+        }
+        update(lengthBytes, 0, 8);
+
+        int[] words = getWords();
+        byte[] digest = new byte[getDigestLength()];
+        for (int i = 0; i < digest.length; i++) {
+            int word = words[i / 4];
+            int shift = isLittleEndian() ? (i % 4) * 8 : (3 - i % 4) * 8;
+            digest[i] = (byte) (word >>> shift);
+        }
+        return digest;
+    }
+
+    /**
+     * @return 当前的链接变量。直接返回内部数组
+     */
+    abstract int[] getWords();
+
+    abstract int getDigestLength();
+
+    abstract boolean isLittleEndian();
+
+    abstract void processBlock(byte[] input, int offset);
+
+    private static final class Md5 extends ResumableDigest {
+        private static final int[] S = {
+                7, 12, 17, 22, 5, 9, 14, 20, 4, 11, 16, 23, 6, 10, 15, 21
+        };
+        private static final int[] K = new int[64];
+
+        static {
+            for (int i = 0; i < 64; i++) {
+                K[i] = (int) (long) ((1L << 32) * Math.abs(Math.sin(i + 1)));
+            }
+        }
+
+        private final int[] h = {0x67452301, 0xefcdab89, 0x98badcfe, 0x10325476};
+        private final int[] x = new int[16];
+
+        Md5() {
+            super(MD5);
+        }
+
+        @Override
+        int[] getWords() {
+            return h;
+        }
+
+        @Override
+        int getDigestLength() {
+            return 16;
+        }
+
+        @Override
+        boolean isLittleEndian() {
+            return true;
+        }
+
+        @Override
+        void processBlock(byte[] input, int offset) {
+            for (int i = 0; i < 16; i++) {
+                int p = offset + i * 4;
+                x[i] = (input[p] & 0xFF)
+                        | (input[p + 1] & 0xFF) << 8
+                        | (input[p + 2] & 0xFF) << 16
+                        | (input[p + 3] & 0xFF) << 24;
+            }
+            int a = h[0], b = h[1], c = h[2], d = h[3];
+            for (int i = 0; i < 64; i++) {
+                int f, g;
+                int round = i >>> 4;
+                if (round == 0) {
+                    f = (b & c) | (~b & d);
+                    g = i;
+                } else if (round == 1) {
+                    f = (d & b) | (~d & c);
+                    g = (5 * i + 1) & 15;
+                } else if (round == 2) {
+                    f = b ^ c ^ d;
+                    g = (3 * i + 5) & 15;
+                } else {
+                    f = c ^ (b | ~d);
+                    g = (7 * i) & 15;
+                }
+                int temp = d;
+                d = c;
+                c = b;
+                b = b + Integer.rotateLeft(a + f + K[i] + x[g], S[(round << 2) | (i & 3)]);
+                a = temp;
+            }
+            h[0] += a;
+            h[1] += b;
+            h[2] += c;
+            h[3] += d;
+        }
+    }
+
+    private static final class Sha256 extends ResumableDigest {
+        private static final int[] K = {
+                0x428a2f98, 0x71374491, 0xb5c0fbcf, 0xe9b5dba5, 0x3956c25b, 0x59f111f1, 0x923f82a4, 0xab1c5ed5,
+                0xd807aa98, 0x12835b01, 0x243185be, 0x550c7dc3, 0x72be5d74, 0x80deb1fe, 0x9bdc06a7, 0xc19bf174,
+                0xe49b69c1, 0xefbe4786, 0x0fc19dc6, 0x240ca1cc, 0x2de92c6f, 0x4a7484aa, 0x5cb0a9dc, 0x76f988da,
+                0x983e5152, 0xa831c66d, 0xb00327c8, 0xbf597fc7, 0xc6e00bf3, 0xd5a79147, 0x06ca6351, 0x14292967,
+                0x27b70a85, 0x2e1b2138, 0x4d2c6dfc, 0x53380d13, 0x650a7354, 0x766a0abb, 0x81c2c92e, 0x92722c85,
+                0xa2bfe8a1, 0xa81a664b, 0xc24b8b70, 0xc76c51a3, 0xd192e819, 0xd6990624, 0xf40e3585, 0x106aa070,
+                0x19a4c116, 0x1e376c08, 0x2748774c, 0x34b0bcb5, 0x391c0cb3, 0x4ed8aa4a, 0x5b9cca4f, 0x682e6ff3,
+                0x748f82ee, 0x78a5636f, 0x84c87814, 0x8cc70208, 0x90befffa, 0xa4506ceb, 0xbef9a3f7, 0xc67178f2
+        };
+
+        private final int[] h = {
+                0x6a09e667, 0xbb67ae85, 0x3c6ef372, 0xa54ff53a, 0x510e527f, 0x9b05688c, 0x1f83d9ab, 0x5be0cd19
+        };
+        private final int[] w = new int[64];
+
+        Sha256() {
+            super(SHA256);
+        }
+
+        @Override
+        int[] getWords() {
+            return h;
+        }
+
+        @Override
+        int getDigestLength() {
+            return 32;
+        }
+
+        @Override
+        boolean isLittleEndian() {
+            return false;
+        }
+
+        @Override
+        void processBlock(byte[] input, int offset) {
+            for (int i = 0; i < 16; i++) {
+                int p = offset + i * 4;
+                w[i] = (input[p] & 0xFF) << 24
+                        | (input[p + 1] & 0xFF) << 16
+                        | (input[p + 2] & 0xFF) << 8
+                        | (input[p + 3] & 0xFF);
+            }
+            for (int i = 16; i < 64; i++) {
+                int s0 = Integer.rotateRight(w[i - 15], 7) ^ Integer.rotateRight(w[i - 15], 18) ^ (w[i - 15] >>> 3);
+                int s1 = Integer.rotateRight(w[i - 2], 17) ^ Integer.rotateRight(w[i - 2], 19) ^ (w[i - 2] >>> 10);
+                w[i] = w[i - 16] + s0 + w[i - 7] + s1;
+            }
+            int a = h[0], b = h[1], c = h[2], d = h[3], e = h[4], f = h[5], g = h[6], hh = h[7];
+            for (int i = 0; i < 64; i++) {
+                int s1 = Integer.rotateRight(e, 6) ^ Integer.rotateRight(e, 11) ^ Integer.rotateRight(e, 25);
+                int ch = (e & f) ^ (~e & g);
+                int t1 = hh + s1 + ch + K[i] + w[i];
+                int s0 = Integer.rotateRight(a, 2) ^ Integer.rotateRight(a, 13) ^ Integer.rotateRight(a, 22);
+                int maj = (a & b) ^ (a & c) ^ (b & c);
+                int t2 = s0 + maj;
+                hh = g;
+                g = f;
+                f = e;
+                e = d + t1;
+                d = c;
+                c = b;
+                b = a;
+                a = t1 + t2;
+            }
+            h[0] += a;
+            h[1] += b;
+            h[2] += c;
+            h[3] += d;
+            h[4] += e;
+            h[5] += f;
+            h[6] += g;
+            h[7] += hh;
+        }
+    }
+}
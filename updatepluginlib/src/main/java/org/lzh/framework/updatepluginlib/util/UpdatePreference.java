@@ -22,47 +22,74 @@ import java.util.HashSet;
 import java.util.Set;
 
 /**
- * 框架内部所提供使用的一些缓存数据存取：如下载进度、忽略版本。
+ * 框架内部所提供使用的一些缓存数据存取：如忽略版本。
  * @author haoge
  */
 public class UpdatePreference {
 
     private static final String PREF_NAME = "update_preference";
 
-    public static long getLastDownloadSize(String url) {
-        SharedPreferences sp = getUpdatePref();
-        return sp.getLong(url,0);
+    public static Set<String> getIgnoreVersions () {
+        return getUpdatePref().getStringSet("ignoreVersions", new HashSet<String>());
     }
 
-    public static long getLastDownloadTotalSize (String url) {
-        SharedPreferences sp = getUpdatePref();
-        return sp.getLong(url + "_total_size",0);
+    public static void saveIgnoreVersion(int versionCode) {
+        Set<String> ignoreVersions = getIgnoreVersions();
+        if (!ignoreVersions.contains(String.valueOf(versionCode))) {
+            ignoreVersions.add(String.valueOf(versionCode));
+            getUpdatePref().edit().putStringSet("ignoreVersions",ignoreVersions).apply();
+        }
     }
 
-    public static void saveDownloadSize (String url,long size) {
-        SharedPreferences.Editor editor = getUpdatePref().edit();
-        editor.putLong(url,size);
-        editor.apply();
+    /**
+     * @return 上次定时检查的时间。未检查过时返回0
+     */
+    public static long getLastCheckTime() {
+        return getUpdatePref().getLong("lastCheckTime", 0);
     }
 
-    public static void saveDownloadTotalSize(String url, long totalSize) {
-        SharedPreferences.Editor editor = getUpdatePref().edit();
-        editor.putLong(url + "_total_size",totalSize);
-        editor.apply();
+    public static void saveLastCheckTime(long time) {
+        getUpdatePref().edit().putLong("lastCheckTime", time).apply();
     }
 
-    public static Set<String> getIgnoreVersions () {
-        return getUpdatePref().getStringSet("ignoreVersions", new HashSet<String>());
+    /**
+     * @return 服务器要求的下次检查的最早时间。无要求时返回0
+     */
+    public static long getNextCheckNotBefore() {
+        return getUpdatePref().getLong("nextCheckNotBefore", 0);
     }
 
-    public static void saveIgnoreVersion(int versionCode) {
-        Set<String> ignoreVersions = getIgnoreVersions();
-        if (!ignoreVersions.contains(String.valueOf(versionCode))) {
-            ignoreVersions.add(String.valueOf(versionCode));
-            getUpdatePref().edit().putStringSet("ignoreVersions",ignoreVersions).apply();
+    public static void saveNextCheckNotBefore(long time) {
+        getUpdatePref().edit().putLong("nextCheckNotBefore", time).apply();
+    }
+
+    /**
+     * @param path 下载文件路径
+     * @return True代表此文件的下载已被暂停
+     */
+    public static boolean isDownloadPaused(String path) {
+        return getPausedDownloads().contains(path);
+    }
+
+    public static void savePausedDownload(String path) {
+        Set<String> paused = getPausedDownloads();
+        if (paused.add(path)) {
+            getUpdatePref().edit().putStringSet("pausedDownloads", paused).apply();
+        }
+    }
+
+    public static void removePausedDownload(String path) {
+        Set<String> paused = getPausedDownloads();
+        if (paused.remove(path)) {
+            getUpdatePref().edit().putStringSet("pausedDownloads", paused).apply();
         }
     }
 
+    private static Set<String> getPausedDownloads() {
+        // SharedPreferences返回的集合不可修改
+        return new HashSet<>(getUpdatePref().getStringSet("pausedDownloads", new HashSet<String>()));
+    }
+
     private static SharedPreferences getUpdatePref () {
         return ActivityManager.get().getApplicationContext().getSharedPreferences(PREF_NAME,Context.MODE_PRIVATE);
     }